@@ -0,0 +1,191 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import parallel.WorkerPool;
+import postagger.PosTagger;
+import postagger.features.PrefixSuffixFeatureTemplateGenerator;
+import postagger.features.WordRangeFeatureTemplateGenerator;
+
+/**
+ * The fixed data shared by the benchmarks.
+ * 
+ * The observation sequences are either synthetic or cut out of the POS tagging training data,
+ * with the given number of labels and the given length. The features are generated by the generators
+ * of the POS tagger and the feature weights are drawn from a seeded random generator,
+ * so every run measures exactly the same work.
+ * @author Hiroshi Manabe
+ */
+@State(Scope.Benchmark)
+public class BenchmarkData {
+    
+    static final int NUM_SEQUENCES = 100;
+    static final int VOCABULARY_SIZE = 2000;
+    static final long SEED = 12345;
+    
+    @Param({"synthetic", "postagger"})
+    public String data;
+    
+    @Param({"10", "45"})
+    public int numLabels;
+    
+    @Param({"2", "3", "4"})
+    public int maxOrder;
+    
+    @Param({"20", "50"})
+    public int length;
+    
+    List<ObservationSequence<String>> observationSequenceList;
+    FeatureTemplateGenerator<String> featureTemplateGenerator;
+    List<DataSequence> dataSequenceList;
+    FeatureIndex featureIndex;
+    int[] featureCountArray;
+    List<PatternSetSequence> patternSetSequenceList;
+    double[] lambda;
+    double[] featureExpWeights;
+    WorkerPool pool;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        observationSequenceList = data.equals("postagger") ? readPosTaggerData() : generateSyntheticData();
+        featureTemplateGenerator = createFeatureTemplateGenerator();
+        pool = new WorkerPool(1);
+        
+        ObservationSet<String> observationSet = new ObservationSet<String>(observationSequenceList);
+        Map<String, Integer> labelMap = observationSet.generateLabelMap();
+        SymbolTable observationTable = new SymbolTable();
+        LabelSequenceTable labelSequenceTable = new LabelSequenceTable();
+        DataSet dataSet = observationSet.generateDataSet(featureTemplateGenerator, labelMap, maxOrder, observationTable, pool);
+        LongIntHashMap featureCountMap = dataSet.generateFeatureCountMap(labelSequenceTable, pool);
+        long[] featureKeys = featureCountMap.keys();
+        Arrays.sort(featureKeys);
+        featureCountArray = new int[featureKeys.length];
+        for (int i = 0; i < featureKeys.length; ++i) {
+            featureCountArray[i] = featureCountMap.get(featureKeys[i], 0);
+        }
+        featureIndex = new FeatureIndex(observationTable, labelSequenceTable, featureKeys);
+        dataSequenceList = dataSet.dataSequenceList;
+        patternSetSequenceList = dataSet.generatePatternSetSequenceList(featureIndex, pool);
+        
+        Random random = new Random(SEED);
+        lambda = new double[featureKeys.length];
+        featureExpWeights = new double[featureKeys.length];
+        for (int i = 0; i < lambda.length; ++i) {
+            lambda[i] = random.nextGaussian() * 0.1;
+            featureExpWeights[i] = Math.exp(lambda[i]);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+    
+    /**
+     * Creates a buffer large enough for the features of the data.
+     * @return
+     */
+    LatticeBuffer createLatticeBuffer() {
+        LatticeBuffer buffer = new LatticeBuffer();
+        buffer.ensureFeatureCapacity(featureExpWeights.length);
+        return buffer;
+    }
+    
+    /**
+     * Creates the feature template generator of the POS tagger, with the label lengths limited to the maximum order.
+     * The unconditional features go up to the maximum order, so that the order of the lattice follows the parameter.
+     * @return
+     */
+    FeatureTemplateGenerator<String> createFeatureTemplateGenerator() {
+        AggregatedFeatureTemplateGenerator<String> gen = new AggregatedFeatureTemplateGenerator<String>();
+        gen.addFeatureTemplateGenerator(new UnconditionalFeatureTemplateGenerator<String>(maxOrder));
+        gen.addFeatureTemplateGenerator(new WordRangeFeatureTemplateGenerator(0, 0, Math.min(2, maxOrder)));
+        gen.addFeatureTemplateGenerator(new WordRangeFeatureTemplateGenerator(-1, -1, Math.min(3, maxOrder)));
+        gen.addFeatureTemplateGenerator(new WordRangeFeatureTemplateGenerator(+1, +1, 1));
+        gen.addFeatureTemplateGenerator(new PrefixSuffixFeatureTemplateGenerator(true, 1, Math.min(2, maxOrder)));
+        gen.addFeatureTemplateGenerator(new PrefixSuffixFeatureTemplateGenerator(false, 1, Math.min(2, maxOrder)));
+        return gen;
+    }
+    
+    /**
+     * Generates the synthetic sequences. Each word mostly keeps the same label, as in real data.
+     * @return
+     */
+    List<ObservationSequence<String>> generateSyntheticData() {
+        Random random = new Random(SEED);
+        List<ObservationSequence<String>> ret = new ArrayList<ObservationSequence<String>>();
+        for (int i = 0; i < NUM_SEQUENCES; ++i) {
+            List<String> observationList = new ArrayList<String>();
+            List<String> labelList = new ArrayList<String>();
+            for (int pos = 0; pos < length; ++pos) {
+                int word = (int)Math.min(VOCABULARY_SIZE - 1, Math.abs(random.nextGaussian()) * VOCABULARY_SIZE / 4);
+                int label = (random.nextInt(10) < 8) ? word % numLabels : random.nextInt(numLabels);
+                observationList.add("w" + word);
+                labelList.add("L" + label);
+            }
+            ret.add(new ObservationSequence<String>(observationList, labelList, true));
+        }
+        return ret;
+    }
+    
+    /**
+     * Cuts the POS tagging training data into sequences of the given length,
+     * mapping the tags to the given number of labels.
+     * The file is given by the system property hofastcrf.bench.postagger (run/postagger/train.txt by default).
+     * @return
+     * @throws IOException
+     */
+    List<ObservationSequence<String>> readPosTaggerData() throws IOException {
+        String filename = System.getProperty("hofastcrf.bench.postagger", "run/postagger/train.txt");
+        List<ObservationSequence<String>> sentenceList = new PosTagger().readData(filename, true);
+        Map<String, Integer> tagMap = new ObservationSet<String>(sentenceList).generateLabelMap();
+        
+        List<ObservationSequence<String>> ret = new ArrayList<ObservationSequence<String>>();
+        List<String> observationList = new ArrayList<String>();
+        List<String> labelList = new ArrayList<String>();
+        for (ObservationSequence<String> sentence : sentenceList) {
+            for (int pos = 0; pos < sentence.getObservationList().size() && ret.size() < NUM_SEQUENCES; ++pos) {
+                observationList.add(sentence.getObservationList().get(pos));
+                labelList.add("L" + tagMap.get(sentence.getLabelList().get(pos)) % numLabels);
+                if (observationList.size() == length) {
+                    ret.add(new ObservationSequence<String>(observationList, labelList, true));
+                    observationList = new ArrayList<String>();
+                    labelList = new ArrayList<String>();
+                }
+            }
+        }
+        return ret;
+    }
+}
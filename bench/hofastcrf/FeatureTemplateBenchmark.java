@@ -0,0 +1,56 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of the feature template generation by the generators of the POS tagger.
+ * Each operation processes all the positions of all the sequences of the data.
+ * @author Hiroshi Manabe
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureTemplateBenchmark {
+    
+    @Benchmark
+    public void generateFeatureTemplatesAt(BenchmarkData data, Blackhole bh) {
+        for (ObservationSequence<String> seq : data.observationSequenceList) {
+            List<String> observationList = seq.getObservationList();
+            for (int pos = 0; pos < observationList.size(); ++pos) {
+                bh.consume(data.featureTemplateGenerator.generateFeatureTemplatesAt(observationList, pos));
+            }
+        }
+    }
+}
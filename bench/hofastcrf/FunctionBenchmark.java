@@ -0,0 +1,70 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of a full evaluation of the objective function and its derivatives over the data.
+ * Two weight vectors are used in turn, since Function caches the result of the last weights.
+ * @author Hiroshi Manabe
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FunctionBenchmark {
+    
+    Function function;
+    double[][] lambdas;
+    int count;
+    
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkData data) {
+        function = new Function(data.patternSetSequenceList, data.featureCountArray, data.pool, 1.0);
+        lambdas = new double[2][];
+        lambdas[0] = data.lambda.clone();
+        lambdas[1] = data.lambda.clone();
+        for (int i = 0; i < lambdas[1].length; ++i) {
+            lambdas[1][i] *= 0.5;
+        }
+        count = 0;
+    }
+    
+    @Benchmark
+    public double valueAt() {
+        return function.valueAt(lambdas[count++ & 1]);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the lattice construction and the computation over the lattices.
+ * Each operation processes all the sequences of the data.
+ * @author Hiroshi Manabe
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatticeBenchmark {
+    
+    LatticeBuffer buffer;
+    
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkData data) {
+        buffer = data.createLatticeBuffer();
+    }
+    
+    @Benchmark
+    public void accumulateFeatureExpectation(BenchmarkData data, Blackhole bh) {
+        for (PatternSetSequence seq : data.patternSetSequenceList) {
+            seq.accumulateFeatureExpectation(data.featureExpWeights, buffer);
+            bh.consume(seq.calcLogLikelihood(buffer));
+        }
+    }
+    
+    @Benchmark
+    public void decode(BenchmarkData data, Blackhole bh) {
+        for (PatternSetSequence seq : data.patternSetSequenceList) {
+            bh.consume(seq.decode(data.featureExpWeights, buffer));
+        }
+    }
+    
+    @Benchmark
+    public void generatePatternSetSequence(BenchmarkData data, Blackhole bh) {
+        for (DataSequence seq : data.dataSequenceList) {
+            bh.consume(seq.generatePatternSetSequence(data.featureIndex));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.File;
+
+import edu.stanford.nlp.optimization.Evaluator;
+
+/**
+ * The evaluator that the QNMinimizer calls after every iteration (see QNMinimizer.setEvaluators()),
+ * which counts the iterations of the checkpoint and saves it at every checkpointInterval iterations.
+ * @author Hiroshi Manabe
+ */
+class CheckpointEvaluator implements Evaluator {
+    
+    final TrainingCheckpoint checkpoint;
+    final File checkpointFile;
+    final int checkpointInterval;
+    
+    /**
+     * Constructor.
+     * @param checkpoint the checkpoint made for the QNMinimizer, whose iterations are counted from its saved count
+     * @param checkpointFile
+     * @param checkpointInterval the number of the iterations between the checkpoints
+     */
+    CheckpointEvaluator(TrainingCheckpoint checkpoint, File checkpointFile, int checkpointInterval) {
+        if (checkpoint.method != TrainingCheckpoint.QUASI_NEWTON) {
+            throw new IllegalArgumentException("The checkpoint was made by another optimizer: " + checkpoint.method);
+        }
+        this.checkpoint = checkpoint;
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = checkpointInterval;
+    }
+    
+    /**
+     * Counts a finished iteration and saves the checkpoint at every checkpointInterval iterations.
+     * @param lambda the weights at the end of the iteration
+     * @return 0.0, as this is not a score
+     */
+    @Override
+    public double evaluate(double[] lambda) {
+        ++checkpoint.iteration;
+        if (checkpoint.iteration % checkpointInterval == 0) {
+            checkpoint.save(lambda, checkpointFile);
+        }
+        return 0.0;
+    }
+    
+    @Override
+    public String toString() {
+        return "checkpoint " + checkpointFile;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A count-min sketch of the frequencies of the packed feature keys (see FeatureIndex).
+ * The estimate of a key is never smaller than its real count, so that a key whose estimate is below a threshold
+ * can be discarded safely without keeping the real counts of all the keys.
+ * Many threads can add to the sketch at the same time.
+ * @author Hiroshi Manabe
+ */
+public class CountMinSketch {
+    
+    final int width;
+    final int depth;
+    private final int mask;
+    private final AtomicIntegerArray counts;
+    
+    /**
+     * Constructor.
+     * @param width the number of the counters in each row, which is rounded up to a power of 2
+     * @param depth the number of the rows (hash functions)
+     */
+    public CountMinSketch(int width, int depth) {
+        if (width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("Invalid sketch size: " + width + " x " + depth);
+        }
+        int w = 1;
+        while (w < width) {
+            w <<= 1;
+        }
+        this.width = w;
+        this.depth = depth;
+        this.mask = w - 1;
+        this.counts = new AtomicIntegerArray(w * depth);
+    }
+    
+    private int getIndex(long key, int row) {
+        return row * width + (LongIntHashMap.hash(key + (row + 1) * 0x9e3779b97f4a7c15L) & mask);
+    }
+    
+    /**
+     * Adds the delta to the count of the key.
+     * @param key
+     * @param delta
+     */
+    public void add(long key, int delta) {
+        for (int row = 0; row < depth; ++row) {
+            counts.addAndGet(getIndex(key, row), delta);
+        }
+    }
+    
+    /**
+     * Returns the estimated count of the key, which is at least the real count.
+     * @param key
+     * @return
+     */
+    public int estimate(long key) {
+        int ret = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; ++row) {
+            ret = Math.min(ret, counts.get(getIndex(key, row)));
+        }
+        return ret;
+    }
+}
@@ -20,37 +20,31 @@ along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
 
 package hofastcrf;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
-
 /**
- * The class for a data sequence.
- * A data sequence is represented as a list (one for each position) of lists of
- * feature templates that are activated at that position.
- * 
- * A data sequence can be generated from an observation sequence and a feature template generator.
- * A data sequence can in turn generate a pattern set sequence, which is used for the real computation.
+ * The class for a data sequence.
+ * A data sequence is represented as an array (one for each position) of the keys of the
+ * feature templates that are activated at that position (see FeatureIndex).
+ * 
+ * A data sequence can be generated from an observation sequence and a feature template generator.
+ * A data sequence can in turn generate a pattern set sequence, which is used for the real computation.
  * 
  * @author Hiroshi Manabe
  */
 public class DataSequence {
     
-    List<List<FeatureTemplate>> featureTemplateListList;
+    long[][] templateKeys;
     int[] labels;
     boolean hasValidLabels;
     int maxOrder;
     
     /**
      * Constructs a data sequence.
-     * @param featureTemplateListList
+     * @param templateKeys
      * @param labels
      */
-    public DataSequence(List<List<FeatureTemplate>> featureTemplateListList, int[] labels, int maxOrder, boolean hasValidLabels) {
+    public DataSequence(long[][] templateKeys, int[] labels, int maxOrder, boolean hasValidLabels) {
         this.labels = labels;
-        this.featureTemplateListList = featureTemplateListList;
+        this.templateKeys = templateKeys;
         this.maxOrder = maxOrder;
         this.hasValidLabels = hasValidLabels;
     }
@@ -60,148 +54,110 @@ public class DataSequence {
      * @return length
      */
     public int length() {
-        return featureTemplateListList.size();
+        return templateKeys.length;
     }
 
-    /**
-     * Returns the reversed label sequence starting from a given position.
-     * @param pos 
-     * @param length
-     * @return reversed label sequence starting from the position
+    /**
+     * Adds the label sequences of the training labels to the table.
+     * @param labelSequenceTable
      */
-    public LabelSequence getLabelSequence(int pos, int length) {
+    public void internLabelSequences(LabelSequenceTable labelSequenceTable) {
         if (!hasValidLabels) {
-            return LabelSequence.createEmptyLabelSequence();
-        }
-        if (pos < length - 1) {
-            return LabelSequence.createEmptyLabelSequence();
+            return;
         }
-        int[] labels = new int[length];
-        for (int i = 0; i < length; ++i) {
-            labels[i] = this.labels[pos - i];
+        for (int pos = 0; pos < labels.length; ++pos) {
+            int maxLength = Math.min(maxOrder, pos + 1);
+            int labelSequenceID = LabelSequenceTable.EMPTY;
+            for (int length = 1; length <= maxLength; ++length) {
+                labelSequenceID = labelSequenceTable.intern(labelSequenceID, labels[pos - length + 1]);
+            }
         }
-        return new LabelSequence(labels);
     }
-    
-    /**
-     * Accumulates counts of the features in this data sequence to the given map.
-     * @param featureCountMap
+    
+    /**
+     * Accumulates counts of the features in this data sequence to the given map.
+     * Only looks up the table, so that it can be called by many threads.
+     * @param featureCountMap the map from the feature keys (see FeatureIndex) to the counts
+     * @param labelSequenceTable the table to which the label sequences of the training labels have been added (see internLabelSequences())
+     */
+    public void accumulateFeatureCountsToMap(LongIntHashMap featureCountMap, LabelSequenceTable labelSequenceTable) {
+        accumulateFeatureCounts(featureCountMap, null, null, labelSequenceTable);
+    }
+    
+    /**
+     * Accumulates counts of the features in this data sequence to the given map,
+     * skipping the features whose estimated counts in the sketch are below the minimum counts.
+     * @param featureCountMap the map from the feature keys (see FeatureIndex) to the counts
+     * @param sketch the sketch holding the counts of all the features in the data set (see accumulateFeatureCountsToSketch())
+     * @param minFeatureCounts the minimum counts for each order (see FeatureCounter.getMinFeatureCount())
+     * @param labelSequenceTable the table to which the label sequences of the training labels have been added (see internLabelSequences())
      */
-    public void accumulateFeatureCountsToMap(Map<Feature, Integer> featureCountMap) {
+    public void accumulateFeatureCountsToMap(LongIntHashMap featureCountMap, CountMinSketch sketch, int[] minFeatureCounts,
+            LabelSequenceTable labelSequenceTable) {
+        accumulateFeatureCounts(featureCountMap, sketch, minFeatureCounts, labelSequenceTable);
+    }
+    
+    /**
+     * Accumulates counts of the features in this data sequence to the given sketch.
+     * @param sketch
+     * @param labelSequenceTable the table to which the label sequences of the training labels have been added (see internLabelSequences())
+     */
+    public void accumulateFeatureCountsToSketch(CountMinSketch sketch, LabelSequenceTable labelSequenceTable) {
+        accumulateFeatureCounts(null, sketch, null, labelSequenceTable);
+    }
+    
+    /**
+     * Accumulates counts of the features either to the map (if it is not null) or to the sketch.
+     * When both are given, the sketch is only used for filtering the features counted to the map.
+     */
+    private void accumulateFeatureCounts(LongIntHashMap featureCountMap, CountMinSketch sketch, int[] minFeatureCounts,
+            LabelSequenceTable labelSequenceTable) {
         if (!hasValidLabels) {
             return;
         }
+        int[] labelSequenceIDs = new int[maxOrder + 1];
         for (int pos = 0; pos < labels.length; ++pos) {
-            for (FeatureTemplate featureTemplate : featureTemplateListList.get(pos)) {
-                if (pos < featureTemplate.getOrder() - 1) {
+            int maxLength = Math.min(maxOrder, pos + 1);
+            labelSequenceIDs[0] = LabelSequenceTable.EMPTY;
+            for (int length = 1; length <= maxLength; ++length) {
+                labelSequenceIDs[length] = labelSequenceTable.getChild(labelSequenceIDs[length - 1], labels[pos - length + 1]);
+            }
+            for (long templateKey : templateKeys[pos]) {
+                int order = FeatureIndex.getLow(templateKey);
+                if (order > maxLength) {
                     continue;
                 }
-                Feature f = new Feature(featureTemplate.getObservation(), getLabelSequence(pos, featureTemplate.getOrder()));
-                if (!featureCountMap.containsKey(f)) {
-                    featureCountMap.put(f, 0);
+                long featureKey = FeatureIndex.packKey(FeatureIndex.getHigh(templateKey), labelSequenceIDs[order]);
+                if (featureCountMap == null) {
+                    sketch.add(featureKey, 1);
+                } else if (sketch == null || sketch.estimate(featureKey) >= FeatureCounter.getMinFeatureCount(minFeatureCounts, order)) {
+                    featureCountMap.addTo(featureKey, 1);
                 }
-                featureCountMap.put(f, featureCountMap.get(f) + 1);
             }
         }
     }
-    
-    /**
-     * Generates a PatternSetSequence for this sequence.
-     * @param featureTemplateToFeatureMap
-     * @return the resulting PatternSetSequence
+    
+    /**
+     * Generates a PatternSetSequence for this sequence.
+     * @param featureIndex
+     * @return the resulting PatternSetSequence
      */
-    public PatternSetSequence generatePatternSetSequence(Map<FeatureTemplate, List<Feature>> featureTemplateToFeatureMap) {
-        List<SortedMap<LabelSequence, Pattern>> mapList = new ArrayList<SortedMap<LabelSequence, Pattern>>();
-        LabelSequence emptyLabelSequence = LabelSequence.createEmptyLabelSequence();
-        
-        for (int pos = 0; pos < this.length(); ++pos) {
-            List<FeatureTemplate> curFeatureTemplateList = featureTemplateListList.get(pos);
-            mapList.add(new TreeMap<LabelSequence, Pattern>());
-            SortedMap<LabelSequence, Pattern> curMap = mapList.get(pos);
-            Pattern emptyPattern = new Pattern(LabelSequence.createEmptyLabelSequence());
-            curMap.put(emptyLabelSequence, emptyPattern);
-            
-            for (FeatureTemplate template : curFeatureTemplateList) {
-                if (template.getOrder() > pos + 1) {
-                    continue;
-                }
-                List<Feature> featureList = featureTemplateToFeatureMap.get(template);
-                if (featureList == null) {
-                    continue;
-                }
-                for (Feature feature : featureList) {
-                    LabelSequence seq = feature.getLabelSequence();
-                    
-                    if (!curMap.containsKey(seq)) {
-                        curMap.put(seq, new Pattern(seq));
-                    }
-                    Pattern pat = curMap.get(seq);
-                    pat.featureList.add(feature);
-
-                    if (pos == 0) {
-                        pat.prevPattern = Pattern.DUMMY_PATTERN;
-                    } else {
-                        int labelLength = seq.getLength();
-                        SortedMap<LabelSequence, Pattern> tempMap = mapList.get(pos);
-                        for (int i = 1; i <= labelLength; ++i) {
-                            SortedMap<LabelSequence, Pattern> prevMap = mapList.get(pos - i);  
-                            LabelSequence prefix = seq.createPrefix();
-
-                            boolean prevMapContainsKey = prevMap.containsKey(prefix);  
-                            if (!prevMapContainsKey) {
-                                prevMap.put(prefix, new Pattern(prefix));
-                            }
-                            tempMap.get(seq).prevPattern = prevMap.get(prefix);
-                            if (prevMapContainsKey) {
-                                break;
-                            }
-                            seq = prefix;
-                            tempMap = prevMap;
-                        }
-                    }
-                }
-            }
-        }
-        List<PatternSet> patternSetList = new ArrayList<PatternSet>();
+    public PatternSetSequence generatePatternSetSequence(FeatureIndex featureIndex) {
+        LatticeBuilder builder = new LatticeBuilder(featureIndex, length());
         for (int pos = 0; pos < length(); ++pos) {
-            SortedMap<LabelSequence, Pattern> curMap = mapList.get(pos);
-            List<Pattern> longestSuffixCandidateList = new ArrayList<Pattern>();
-            Pattern emptyPattern = curMap.get(emptyLabelSequence);
-            for (int i = 0; i < maxOrder + 1; ++i) {
-                longestSuffixCandidateList.add(emptyPattern);
-            }
-            
-            LabelSequence prevLabelSequence = emptyLabelSequence;
-            for (Map.Entry<LabelSequence, Pattern> entry : curMap.entrySet()) {
-                LabelSequence curLabelSequence = entry.getKey();
-                Pattern curPattern = entry.getValue();
-                if (curLabelSequence.equals(emptyLabelSequence)) {
+            for (long templateKey : templateKeys[pos]) {
+                if (FeatureIndex.getLow(templateKey) > pos + 1) {
                     continue;
                 }
-                int diffPos = curLabelSequence.getDifferencePosition(prevLabelSequence);
-                curPattern.longestSuffixPattern = longestSuffixCandidateList.get(diffPos);
-                for (int i = diffPos + 1; i < curLabelSequence.getLength(); ++i) {
-                    longestSuffixCandidateList.set(i, longestSuffixCandidateList.get(diffPos));
+                int template = featureIndex.getTemplate(templateKey);
+                if (template < 0) {
+                    continue;
                 }
-                longestSuffixCandidateList.set(curLabelSequence.getLength(), curPattern);
-                prevLabelSequence = curLabelSequence;
-            }
-            
-            List<Pattern> patternList = new ArrayList<Pattern>();
-            patternList.addAll(mapList.get(pos).values());
-            Pattern longestMatchPattern = patternList.get(0);
-            if (hasValidLabels) {
-                SortedMap<LabelSequence, Pattern> prevMap = mapList.get(pos);
-                for (int length = Math.min(maxOrder, pos + 1); length > 0; --length) {
-                    LabelSequence key = getLabelSequence(pos, length);
-                    if (prevMap.containsKey(key)) {
-                        longestMatchPattern = prevMap.get(key);
-                        break;
-                    }
+                for (int j = featureIndex.templateOffsets[template]; j < featureIndex.templateOffsets[template + 1]; ++j) {
+                    builder.addFeature(pos, featureIndex.templateFeatures[j]);
                 }
             }
-            patternSetList.add(new PatternSet(patternList, longestMatchPattern));
         }
-        return new PatternSetSequence(patternSetList);
+        return builder.build(hasValidLabels ? labels : null, maxOrder);
     }
 }
@@ -0,0 +1,131 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import parallel.Schedulable;
+
+/**
+ * The class that generates the data sequences from the observation sequences in parallel.
+ * 
+ * Each thread interns the observations into its own SymbolTable, so the threads do not contend for a shared table.
+ * The observations are then re-interned into the shared table in the order of the sequences, which gives the same IDs
+ * as generating the data sequences one by one.
+ * @author Hiroshi Manabe
+ * @param <T> The class of the observations
+ */
+public class DataSequenceGenerator<T> implements Schedulable {
+    
+    int curID;
+    List<ObservationSequence<T>> observationSequenceList;
+    FeatureTemplateGenerator<T> featureTemplateGenerator;
+    Map<String, Integer> labelMap;
+    int maxOrder;
+    DataSequence[] dataSequences;
+    SymbolTable[] sequenceTables;  // the local table of each sequence
+    List<SymbolTable> localTableList = new ArrayList<SymbolTable>();
+    ThreadLocal<SymbolTable> localTable = ThreadLocal.withInitial(this::createLocalTable);
+    
+    /**
+     * Constructor.
+     * @param observationSequenceList
+     * @param featureTemplateGenerator
+     * @param labelMap
+     * @param maxOrder
+     */
+    public DataSequenceGenerator(List<ObservationSequence<T>> observationSequenceList, FeatureTemplateGenerator<T> featureTemplateGenerator,
+            Map<String, Integer> labelMap, int maxOrder) {
+        curID = -1;
+        this.observationSequenceList = observationSequenceList;
+        this.featureTemplateGenerator = featureTemplateGenerator;
+        this.labelMap = labelMap;
+        this.maxOrder = maxOrder;
+        this.dataSequences = new DataSequence[observationSequenceList.size()];
+        this.sequenceTables = new SymbolTable[observationSequenceList.size()];
+    }
+    
+    synchronized SymbolTable createLocalTable() {
+        SymbolTable table = new SymbolTable();
+        localTableList.add(table);
+        return table;
+    }
+    
+    /**
+     * Creates the data set, converting the observation IDs of the local tables to the IDs of the given table.
+     * This must be called after all the tasks are finished.
+     * @param observationTable the table to which the observations are added
+     * @return
+     */
+    synchronized DataSet createDataSet(SymbolTable observationTable) {
+        Map<SymbolTable, int[]> observationMaps = new IdentityHashMap<SymbolTable, int[]>();
+        for (SymbolTable table : localTableList) {
+            int[] observationMap = new int[table.size()];
+            Arrays.fill(observationMap, -1);
+            observationMaps.put(table, observationMap);
+        }
+        for (int i = 0; i < dataSequences.length; ++i) {
+            SymbolTable table = sequenceTables[i];
+            int[] observationMap = observationMaps.get(table);
+            for (long[] keys : dataSequences[i].templateKeys) {
+                for (int j = 0; j < keys.length; ++j) {
+                    int observation = FeatureIndex.getHigh(keys[j]);
+                    if (observationMap[observation] < 0) {
+                        observationMap[observation] = observationTable.intern(table.get(observation));
+                    }
+                    keys[j] = FeatureIndex.packKey(observationMap[observation], FeatureIndex.getLow(keys[j]));
+                }
+            }
+        }
+        return new DataSet(new ArrayList<DataSequence>(Arrays.asList(dataSequences)));
+    }
+    
+    @Override
+    public Object compute(int taskID) {
+        SymbolTable table = localTable.get();
+        dataSequences[taskID] = observationSequenceList.get(taskID).generateDataSequence(featureTemplateGenerator, labelMap, maxOrder,
+                table, true);
+        sequenceTables[taskID] = table;
+        return null;
+    }
+    
+    @Override
+    public int getNumTasks() {
+        return observationSequenceList.size();
+    }
+    
+    @Override
+    public synchronized int fetchCurrTaskID() {
+        if (curID < getNumTasks()) {
+            curID++;
+        }
+        return curID;
+    }
+    
+    @Override
+    public void update(Object partialResult) {
+        // Does nothing
+    }
+}
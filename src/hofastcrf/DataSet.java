@@ -20,10 +20,11 @@ along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
 
 package hofastcrf;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+
+import parallel.Scheduler;
+import parallel.WorkerPool;
 
 /**
  * The class for a data set.
@@ -43,30 +44,73 @@ public class DataSet {
         this.dataSequenceList = dataSequenceList;
     }
     
-    /**
-     * Generates a map having the features as keys and the frequency in the data set as values.  
-     * @return the resulting map
-     */
-    public Map<Feature, Integer> generateFeatureCountMap() {
-        Map<Feature, Integer> featureMap = new HashMap<Feature, Integer>();
+    /**
+     * Generates a map having the feature keys (see FeatureIndex) as keys and the frequency in the data set as values.
+     * The label sequences are interned first, one sequence after another, and then the features are counted in parallel.
+     * @param labelSequenceTable the table to which the label sequences of the features are added
+     * @param pool the worker pool to run the counting
+     * @return the resulting map
+     * @throws InterruptedException
+     */
+    public LongIntHashMap generateFeatureCountMap(LabelSequenceTable labelSequenceTable, WorkerPool pool) throws InterruptedException {
+        return generateFeatureCountMap(labelSequenceTable, null, null, pool);
+    }
+    
+    /**
+     * Generates a map having the feature keys (see FeatureIndex) as keys and the frequency in the data set as values,
+     * leaving out the features whose frequency is below the minimum count for their order.
+     * If a sketch is given, the data set is read twice so that only the counts of the features
+     * that may reach the minimum counts are kept in the maps (see FeatureCounter).
+     * @param labelSequenceTable the table to which the label sequences of the features are added
+     * @param minFeatureCounts the minimum counts, the i-th element of which is for the order i + 1
+     * and the last element of which is also for all the higher orders, or null to keep all the features
+     * @param sketch an empty sketch for the two-pass counting, or null to count all the features at once
+     * @param pool the worker pool to run the counting
+     * @return the resulting map
+     * @throws InterruptedException
+     */
+    public LongIntHashMap generateFeatureCountMap(LabelSequenceTable labelSequenceTable, int[] minFeatureCounts,
+            CountMinSketch sketch, WorkerPool pool) throws InterruptedException {
         for (DataSequence dataSequence : dataSequenceList) {
-            dataSequence.accumulateFeatureCountsToMap(featureMap);
+            dataSequence.internLabelSequences(labelSequenceTable);
+        }
+        FeatureCounter counter = new FeatureCounter(dataSequenceList, labelSequenceTable, minFeatureCounts, sketch);
+        if (counter.sketch != null) {
+            counter.setFillingSketch(true);
+            new Scheduler(counter, pool, Scheduler.DYNAMIC_NEXT_AVAILABLE).run();
+            counter.setFillingSketch(false);
         }
-        return featureMap;
+        Scheduler sch = new Scheduler(counter, pool, Scheduler.DYNAMIC_NEXT_AVAILABLE);
+        sch.run();
+        return counter.mergeFeatureCounts();
     }
-    
-    /**
-     * Generates a list of PatternSetSequence for this data set.
-     * @param featureTemplateToFeatureMap
-     * @return
+    
+    /**
+     * Generates the PatternSetSequences of a range of the data sequences in parallel.
+     * @param featureIndex
+     * @param from the index of the first data sequence
+     * @param to the index after the last data sequence
+     * @param pool the worker pool to run the generation
+     * @return the PatternSetSequences in the order of the data sequences
+     * @throws InterruptedException
      */
-    public List<PatternSetSequence> generatePatternSetSequenceList(Map<FeatureTemplate, List<Feature>> featureTemplateToFeatureMap) {
-        List<PatternSetSequence> list = new ArrayList<PatternSetSequence>();
-        int count = 0;
-        for (DataSequence sequence : dataSequenceList) {
-            list.add(sequence.generatePatternSetSequence(featureTemplateToFeatureMap));
-            System.out.println("Generated a PatternSetSequence" + count++);
-        }
+    public PatternSetSequence[] generatePatternSetSequences(FeatureIndex featureIndex, int from, int to, WorkerPool pool) throws InterruptedException {
+        PatternSetSequenceGenerator generator = new PatternSetSequenceGenerator(dataSequenceList, featureIndex, from, to);
+        Scheduler sch = new Scheduler(generator, pool, Scheduler.DYNAMIC_NEXT_AVAILABLE);
+        sch.run();
+        return generator.getPatternSetSequences();
+    }
+    
+    /**
+     * Generates a list of PatternSetSequence for this data set.
+     * @param featureIndex
+     * @param pool the worker pool to run the generation
+     * @return
+     * @throws InterruptedException
+     */
+    public List<PatternSetSequence> generatePatternSetSequenceList(FeatureIndex featureIndex, WorkerPool pool) throws InterruptedException {
+        List<PatternSetSequence> list = Arrays.asList(generatePatternSetSequences(featureIndex, 0, dataSequenceList.size(), pool));
+        System.out.println("Generated " + list.size() + " PatternSetSequences");
         return list;
     }
 }
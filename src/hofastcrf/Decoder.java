@@ -20,15 +20,12 @@ along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
 
 package hofastcrf;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import parallel.Schedulable;
 
 /**
- * A class that infers the labels from the observations.
+ * A class that infers the labels from the observations in parallel, with a Tagger shared by the threads.
  * @author Hiroshi Manabe
  *
  * @param <T> The class for the observations.
@@ -37,50 +34,97 @@ public class Decoder<T> implements Schedulable {
 
     int curID; // Current task ID (for parallelization)
     List<ObservationSequence<T>> observationSequenceList; // List of testing sequences
-    FeatureTemplateGenerator<T> generator;
-    final List<Feature> featureList;
-    final Map<FeatureTemplate, List<Feature>> featureTemplateToFeatureMap;
-    final Map<String, Integer> labelMap;
-    final Map<Integer, String> reversedLabelMap;
-    final int maxOrder;
+    final Tagger<T> tagger;
     String[][] labelArrayArray;
+    int beamSize;
+    double beamThreshold;
+    int nBestSize = 0;
+    NBestResult[] nBestResults = null;
+    double[][][] marginals = null;
+    double[] confidences = null;
 
     /**
      * Constructor.
      * @param observationSequenceList
-     * @param generator
-     * @param featureList the features appeared in the training set
-     * @param labelMap
+     * @param generator
+     * @param modelData the trained model
      */
     public Decoder(List<ObservationSequence<T>> observationSequenceList, FeatureTemplateGenerator<T> generator, 
-            List<Feature> featureList, Map<String, Integer> labelMap) {
+            HighOrderCRFData modelData) {
+        this(observationSequenceList, new Tagger<T>(modelData, generator));
+    }
+    
+    /**
+     * Constructor with a tagger that has been created for the model, whose beam is used unless setBeam() is called.
+     * @param observationSequenceList
+     * @param tagger
+     */
+    public Decoder(List<ObservationSequence<T>> observationSequenceList, Tagger<T> tagger) {
         curID = -1;
         this.observationSequenceList = observationSequenceList;
-        this.generator = generator;
-        this.featureList = featureList;
-        this.labelMap = labelMap;
+        this.tagger = tagger;
         this.labelArrayArray = new String[observationSequenceList.size()][];
-        
-        featureTemplateToFeatureMap = new HashMap<FeatureTemplate, List<Feature>>();
-        int maxOrder = 0;
-        for (Feature f : featureList) {
-            if (f.pat.getLength() > maxOrder) {
-                maxOrder = f.pat.getLength();
-            }
-            FeatureTemplate ft = f.createFeatureTemplate();
-            if (!featureTemplateToFeatureMap.containsKey(ft)) {
-                featureTemplateToFeatureMap.put(ft, new ArrayList<Feature>());
-            }
-            featureTemplateToFeatureMap.get(ft).add(f);
-        }
-        this.maxOrder = maxOrder;
-        
-        reversedLabelMap = new HashMap<Integer, String>();
-        for (Map.Entry<String, Integer> entry : labelMap.entrySet()) {
-            reversedLabelMap.put(entry.getValue(), entry.getKey());
-        }
+        this.beamSize = tagger.beamSize;
+        this.beamThreshold = tagger.beamThreshold;
     }
     
+    /**
+     * Makes the decoder keep only the best patterns at each position (see PatternSetSequence.decode()).
+     * @param beamSize the maximum number of the patterns kept at each position, or 0 for no limit
+     * @param beamThreshold the maximum difference of the log scores from the best one at each position,
+     * or Double.POSITIVE_INFINITY for no limit
+     */
+    public void setBeam(int beamSize, double beamThreshold) {
+        this.beamSize = beamSize;
+        this.beamThreshold = beamThreshold;
+    }
+    
+    /**
+     * Makes the decoder infer the n best label sequences for each observation sequence (see PatternSetSequence.decodeNBest()).
+     * The beam is not used then.
+     * @param nBestSize the number of the label sequences, or 0 to infer only the best one
+     */
+    public void setNBestSize(int nBestSize) {
+        this.nBestSize = nBestSize;
+        this.nBestResults = (nBestSize > 0) ? new NBestResult[observationSequenceList.size()] : null;
+    }
+    
+    /**
+     * Returns the stored n best label sequences, or null if the n best sequences are not inferred.
+     * @return
+     */
+    public NBestResult[] getNBestResults() {
+        return nBestResults;
+    }
+    
+    /**
+     * Makes the decoder also compute the marginal probabilities of the labels
+     * and the probability of the best label sequence (the confidence) for each observation sequence.
+     * The beam and the n best label sequences are not used then.
+     * @param isComputingMarginals
+     */
+    public void setComputingMarginals(boolean isComputingMarginals) {
+        this.marginals = isComputingMarginals ? new double[observationSequenceList.size()][][] : null;
+        this.confidences = isComputingMarginals ? new double[observationSequenceList.size()] : null;
+    }
+    
+    /**
+     * Returns the stored marginal probabilities, indexed by the sequences, the positions and the labels,
+     * or null if they are not computed.
+     * @return
+     */
+    public double[][][] getMarginals() {
+        return marginals;
+    }
+    
+    /**
+     * Returns the stored probabilities of the predicted label sequences, or null if they are not computed.
+     * @return
+     */
+    public double[] getConfidences() {
+        return confidences;
+    }
+    
     /**
      * Returns the stored predicted labels.
      * @return
@@ -94,23 +138,28 @@ public class Decoder<T> implements Schedulable {
      */
     public Object compute(int taskID) {
         ObservationSequence<T> observationSequence = observationSequenceList.get(taskID);
-        DataSequence dataSequence = observationSequence.generateDataSequence(generator, labelMap, maxOrder);
-        PatternSetSequence patternSetSequence = dataSequence.generatePatternSetSequence(featureTemplateToFeatureMap);
-        
-        if (DebugInfoManager.getInstance().getDebugMode()) {
-            System.out.println("Decoding sequence No. " + taskID + "...");
-        }
-        
-        if (taskID == 55) {
-            taskID *= 1;
-        }
-        
-        int[] labels = patternSetSequence.decode();
-        String[] strLabels = new String[labels.length];
-        for (int i = 0; i < labels.length; ++i) {
-            strLabels[i] = reversedLabelMap.get(labels[i]);
+        
+        if (DebugInfoManager.getInstance().getDebugMode()) {
+            System.out.println("Decoding sequence No. " + taskID + "...");
+        }
+        
+        if (marginals != null) {
+            PatternSetSequence patternSetSequence = tagger.generatePatternSetSequence(observationSequence);
+            LatticeBuffer buffer = tagger.latticeBuffer.get();
+            double[] featureExpWeights = tagger.getFeatureExpWeights();
+            marginals[taskID] = patternSetSequence.calcMarginals(featureExpWeights, buffer, tagger.labels.length);
+            labelArrayArray[taskID] = tagger.toStringLabels(patternSetSequence.decode(featureExpWeights, buffer));
+            confidences[taskID] = Math.exp(buffer.bestLogScore - buffer.logZ);
+            return null;
         }
-        labelArrayArray[taskID] = strLabels;
+        
+        if (nBestSize > 0) {
+            nBestResults[taskID] = tagger.tagNBest(observationSequence, nBestSize);
+            labelArrayArray[taskID] = nBestResults[taskID].getLabels(0);
+            return null;
+        }
+        
+        labelArrayArray[taskID] = tagger.tag(observationSequence, beamSize, beamThreshold);
         return null;
     }
     
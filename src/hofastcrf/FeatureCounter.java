@@ -0,0 +1,159 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import parallel.Schedulable;
+
+/**
+ * The class that counts the features of the data sequences in parallel.
+ * Each thread counts into its own map and the maps are merged at the end.
+ * The label sequences must have been interned beforehand (see DataSequence.internLabelSequences()).
+ * 
+ * The features can be cut off by their counts, with a minimum count for each order of the features.
+ * With a count-min sketch, the counting takes two passes: the first pass counts all the features into the sketch,
+ * and the second pass counts into the maps only the features whose estimated counts reach the minimum counts,
+ * so that the real counts of the rare features are never kept.
+ * @author Hiroshi Manabe
+ */
+public class FeatureCounter implements Schedulable {
+    
+    int curID;
+    List<DataSequence> dataSequenceList;
+    LabelSequenceTable labelSequenceTable;
+    int[] minFeatureCounts;
+    CountMinSketch sketch;
+    boolean isFillingSketch = false;
+    List<LongIntHashMap> featureCountMapList = new ArrayList<LongIntHashMap>();
+    ThreadLocal<LongIntHashMap> featureCountMap = ThreadLocal.withInitial(this::createFeatureCountMap);
+    
+    /**
+     * Constructor.
+     * @param dataSequenceList
+     * @param labelSequenceTable
+     */
+    public FeatureCounter(List<DataSequence> dataSequenceList, LabelSequenceTable labelSequenceTable) {
+        this(dataSequenceList, labelSequenceTable, null, null);
+    }
+    
+    /**
+     * Constructor.
+     * @param dataSequenceList
+     * @param labelSequenceTable
+     * @param minFeatureCounts the minimum counts for each order (see getMinFeatureCount()), or null to keep all the features
+     * @param sketch the sketch for the two-pass counting, or null to count all the features into the maps
+     */
+    public FeatureCounter(List<DataSequence> dataSequenceList, LabelSequenceTable labelSequenceTable,
+            int[] minFeatureCounts, CountMinSketch sketch) {
+        curID = -1;
+        this.dataSequenceList = dataSequenceList;
+        this.labelSequenceTable = labelSequenceTable;
+        this.minFeatureCounts = minFeatureCounts;
+        this.sketch = (minFeatureCounts != null) ? sketch : null;  // nothing to filter without the minimum counts
+    }
+    
+    /**
+     * Returns the minimum count of the features of an order.
+     * @param minFeatureCounts the minimum counts, the i-th element of which is for the order i + 1
+     * and the last element of which is also for all the higher orders, or null for no minimum counts
+     * @param order
+     * @return
+     */
+    static int getMinFeatureCount(int[] minFeatureCounts, int order) {
+        if (minFeatureCounts == null || minFeatureCounts.length == 0) {
+            return 1;
+        }
+        return minFeatureCounts[Math.min(order, minFeatureCounts.length) - 1];
+    }
+    
+    /**
+     * Makes the following run of the scheduler fill the sketch instead of counting into the maps.
+     * @param isFillingSketch
+     */
+    synchronized void setFillingSketch(boolean isFillingSketch) {
+        this.isFillingSketch = isFillingSketch;
+        curID = -1;
+    }
+    
+    synchronized LongIntHashMap createFeatureCountMap() {
+        LongIntHashMap map = new LongIntHashMap();
+        featureCountMapList.add(map);
+        return map;
+    }
+    
+    /**
+     * Merges the counts of all the threads and removes the features whose counts are below the minimum counts.
+     * This must be called after all the tasks are finished.
+     * @return the map from the feature keys to the counts
+     */
+    synchronized LongIntHashMap mergeFeatureCounts() {
+        if (featureCountMapList.isEmpty()) {
+            return new LongIntHashMap();
+        }
+        LongIntHashMap merged = featureCountMapList.get(0);
+        for (int i = 1; i < featureCountMapList.size(); ++i) {
+            merged.addAll(featureCountMapList.get(i));
+        }
+        if (minFeatureCounts == null) {
+            return merged;
+        }
+        LongIntHashMap ret = new LongIntHashMap();
+        for (long featureKey : merged.keys()) {
+            int count = merged.get(featureKey, 0);
+            int order = labelSequenceTable.getLength(FeatureIndex.getLow(featureKey));
+            if (count >= getMinFeatureCount(minFeatureCounts, order)) {
+                ret.put(featureKey, count);
+            }
+        }
+        return ret;
+    }
+    
+    @Override
+    public Object compute(int taskID) {
+        DataSequence dataSequence = dataSequenceList.get(taskID);
+        if (isFillingSketch) {
+            dataSequence.accumulateFeatureCountsToSketch(sketch, labelSequenceTable);
+        } else {
+            dataSequence.accumulateFeatureCountsToMap(featureCountMap.get(), sketch, minFeatureCounts, labelSequenceTable);
+        }
+        return null;
+    }
+    
+    @Override
+    public int getNumTasks() {
+        return dataSequenceList.size();
+    }
+    
+    @Override
+    public synchronized int fetchCurrTaskID() {
+        if (curID < getNumTasks()) {
+            curID++;
+        }
+        return curID;
+    }
+    
+    @Override
+    public void update(Object partialResult) {
+        // Does nothing
+    }
+}
@@ -0,0 +1,136 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+/**
+ * The index of the features, which are identified by packed primitive keys.
+ * 
+ * A feature key packs the observation ID (interned by a SymbolTable) and the label sequence ID
+ * (interned by a LabelSequenceTable) into a long. A feature template key packs the observation ID and the order.
+ * The index maps the feature template keys to the features with the same observation and order
+ * in a compressed row format, keeping the feature numbers given at the construction.
+ * The label sequence table must not be changed after the construction of the index.
+ * The index is immutable and can be shared by threads.
+ * @author Hiroshi Manabe
+ */
+public class FeatureIndex {
+    
+    final SymbolTable observationTable;
+    final LabelSequenceTable labelSequenceTable;
+    final int[] featureObservations;
+    final int[] featureLabelSequences;
+    final LongIntHashMap templateMap;  // feature template key -> template number
+    final int[] templateOffsets;  // the features of the template t are in [templateOffsets[t], templateOffsets[t + 1])
+    final int[] templateFeatures;
+    final int[] labelSequenceRanks;  // the preorder ranks of the label sequences, see LabelSequenceTable
+    final int maxOrder;
+    
+    /**
+     * Constructor.
+     * @param observationTable
+     * @param labelSequenceTable
+     * @param featureKeys the keys of the features, whose positions in the array are the feature numbers
+     */
+    public FeatureIndex(SymbolTable observationTable, LabelSequenceTable labelSequenceTable, long[] featureKeys) {
+        this.observationTable = observationTable;
+        this.labelSequenceTable = labelSequenceTable;
+        int numFeatures = featureKeys.length;
+        featureObservations = new int[numFeatures];
+        featureLabelSequences = new int[numFeatures];
+        templateMap = new LongIntHashMap();
+        
+        int[] featureTemplates = new int[numFeatures];
+        int maxOrder = 0;
+        for (int i = 0; i < numFeatures; ++i) {
+            featureObservations[i] = getHigh(featureKeys[i]);
+            featureLabelSequences[i] = getLow(featureKeys[i]);
+            int order = labelSequenceTable.getLength(featureLabelSequences[i]);
+            maxOrder = Math.max(maxOrder, order);
+            long templateKey = packKey(featureObservations[i], order);
+            int template = templateMap.get(templateKey, -1);
+            if (template < 0) {
+                template = templateMap.size();
+                templateMap.put(templateKey, template);
+            }
+            featureTemplates[i] = template;
+        }
+        this.maxOrder = maxOrder;
+        
+        int numTemplates = templateMap.size();
+        templateOffsets = new int[numTemplates + 1];
+        for (int i = 0; i < numFeatures; ++i) {
+            ++templateOffsets[featureTemplates[i] + 1];
+        }
+        for (int t = 0; t < numTemplates; ++t) {
+            templateOffsets[t + 1] += templateOffsets[t];
+        }
+        templateFeatures = new int[numFeatures];
+        int[] fillCounts = new int[numTemplates];
+        for (int i = 0; i < numFeatures; ++i) {
+            int template = featureTemplates[i];
+            templateFeatures[templateOffsets[template] + fillCounts[template]++] = i;
+        }
+        labelSequenceRanks = labelSequenceTable.computePreorderRanks();
+    }
+    
+    public SymbolTable getObservationTable() {
+        return observationTable;
+    }
+    
+    public LabelSequenceTable getLabelSequenceTable() {
+        return labelSequenceTable;
+    }
+    
+    public int getNumFeatures() {
+        return featureLabelSequences.length;
+    }
+    
+    public int getMaxOrder() {
+        return maxOrder;
+    }
+    
+    /**
+     * Returns the number of the feature template.
+     * @param templateKey
+     * @return the template number, or -1 if no feature has the observation and the order
+     */
+    int getTemplate(long templateKey) {
+        return templateMap.get(templateKey, -1);
+    }
+    
+    /**
+     * Packs two non-negative integers into a key.
+     * @param high
+     * @param low
+     * @return
+     */
+    static long packKey(int high, int low) {
+        return ((long)high << 32) | (low & 0xffffffffL);
+    }
+    
+    static int getHigh(long key) {
+        return (int)(key >>> 32);
+    }
+    
+    static int getLow(long key) {
+        return (int)key;
+    }
+}
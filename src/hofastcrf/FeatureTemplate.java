@@ -40,15 +40,6 @@ public class FeatureTemplate {
         this.order = order;
     }
     
-    /**
-     * Generates a feature by applying a label sequence.
-     * @param seq the label sequence
-     * @return
-     */
-    public Feature GenerateFeature(LabelSequence seq) {
-        return new Feature(this.obs, seq);
-    }
-    
     public int getOrder() {
         return order;
     }
@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import parallel.Scheduler;
+import parallel.WorkerPool;
 import edu.stanford.nlp.optimization.DiffFunction;
 
 /**
@@ -33,32 +34,33 @@ import edu.stanford.nlp.optimization.DiffFunction;
 public class Function implements DiffFunction {
 
     List<PatternSetSequence> patternSetSequenceList;
-    List<Feature> featureList;
     int[] featureCountArray;
+    double[] featureExpWeights;
     double[] resultArray;
-    int concurrency;
+    WorkerPool pool;
+    LogLikelihoodComputer logLikelihoodComputer;
     double regularizationCoefficientL2;
     double logl;
     double[] lambdaCache;
-    
-    /**
-     * Constructor.
-     * @param patternSetSequenceList
-     * @param featureList
-     * @param featureCountArray the counts of the features observed in the training set 
-     * @param concurrency
-     * @param regularizationCoefficientL2 set this parameter to 0.0 when using the L1 optimization
+    
+    /**
+     * Constructor.
+     * @param patternSetSequenceList
+     * @param featureCountArray the counts of the features observed in the training set, indexed by the feature numbers
+     * @param pool the worker pool shared by all the evaluations
+     * @param regularizationCoefficientL2 set this parameter to 0.0 when using the L1 optimization
      */
-    public Function(List<PatternSetSequence> patternSetSequenceList, List<Feature> featureList, int[] featureCountArray,
-            int concurrency, double regularizationCoefficientL2) {
+    public Function(List<PatternSetSequence> patternSetSequenceList, int[] featureCountArray,
+            WorkerPool pool, double regularizationCoefficientL2) {
         this.patternSetSequenceList = patternSetSequenceList;
-        this.featureList = featureList;
         this.featureCountArray = featureCountArray;
-        this.concurrency = concurrency;
+        this.featureExpWeights = new double[featureCountArray.length];
+        this.pool = pool;
         this.regularizationCoefficientL2 = regularizationCoefficientL2;
         this.logl = 0.0;
-        this.resultArray = new double[featureList.size()];
+        this.resultArray = new double[featureCountArray.length];
         this.lambdaCache = null;
+        this.logLikelihoodComputer = new LogLikelihoodComputer(patternSetSequenceList, featureExpWeights);
     }
     
     @Override
@@ -89,34 +91,29 @@ public class Function implements DiffFunction {
      */
     public void computeValueAndDerivatives(double[] lambda) {
         for (int i = 0; i < lambda.length; ++i) {
-            featureList.get(i).reset(lambda[i]);
+            featureExpWeights[i] = Math.exp(lambda[i]);
         }
         LogLikelihood logLikelihood = new LogLikelihood(0.0);
         for (int i = 0; i < lambda.length; i++) {
-            Feature f = featureList.get(i);
-            f.addExpectation(featureCountArray[i]);
-        }
-        
-        if (regularizationCoefficientL2 != 0.0) {
-            for (int i = 0; i < lambda.length; i++) {
-                Feature f = featureList.get(i);
-                logLikelihood.addLogLikelihood(-((lambda[i] * lambda[i]) * regularizationCoefficientL2) / 2);
-                f.addExpectation(-lambda[i] * regularizationCoefficientL2);
-            }
-        }
+            resultArray[i] = featureCountArray[i];
+        }
+        
+        if (regularizationCoefficientL2 != 0.0) {
+            for (int i = 0; i < lambda.length; i++) {
+                logLikelihood.addLogLikelihood(-((lambda[i] * lambda[i]) * regularizationCoefficientL2) / 2);
+                resultArray[i] += -lambda[i] * regularizationCoefficientL2;
+            }
+        }
         
-        LogLikelihoodComputer logLikelihoodComputer = new LogLikelihoodComputer(patternSetSequenceList, logLikelihood);
-        Scheduler sch = new Scheduler(logLikelihoodComputer, concurrency, Scheduler.DYNAMIC_NEXT_AVAILABLE);
+        logLikelihoodComputer.reset(logLikelihood);
+        Scheduler sch = new Scheduler(logLikelihoodComputer, pool, Scheduler.DYNAMIC_NEXT_AVAILABLE);
         try {
             sch.run();
         } catch (Exception e) {
             System.out.println("Errors occur when training in parallel! " + e);
         }
-        logl = logLikelihood.getLogLikelihood();
-        
-        for (int i = 0; i < lambda.length; ++i) { 
-            resultArray[i] = featureList.get(i).expectation;
-        }
+        logl = logLikelihood.getLogLikelihood();
+        logLikelihoodComputer.mergeFeatureExpectations(resultArray);
         
         for (int i = 0; i < lambda.length; ++i) { 
             resultArray[i] = -resultArray[i];
@@ -126,6 +123,6 @@ public class Function implements DiffFunction {
 
     @Override
     public int domainDimension() {
-        return featureList.size();
+        return featureCountArray.length;
     }    
 }
@@ -20,39 +20,87 @@ along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
 
 package hofastcrf;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
- * The class for the serialization of the high-order CRF model data.
+ * The class for the high-order CRF model data.
+ * 
+ * The features are kept in columns: the observation ID, the label sequence ID and the weight of each feature.
+ * The model is saved in a versioned binary format, laid out as follows (all numbers big-endian):
+ * <pre>
+ * int magic, int version
+ * int numLabels, int numObservations, int observationPoolSize, int numLabelSequences, int numFeatures
+ * labels:          numLabels x (int byteLength, UTF-8 bytes), in the order of the label IDs
+ * string pool:     int[numObservations + 1] offsets, byte[observationPoolSize] UTF-8 bytes
+ * label sequences: int[numLabelSequences] parents, int[numLabelSequences] farthest labels (ID 0 is the empty sequence)
+ * features:        int[numFeatures] observation IDs, int[numFeatures] label sequence IDs
+ * weights:         int weightBits, followed by double[numFeatures] weights if it is 64,
+ *                  or by int numScales, double[numScales] scales indexed by the orders and
+ *                  byte[numFeatures] (8) or short[numFeatures] (16) values if it is quantized (see QuantizedWeights)
+ * inference index: int hasIndex, followed by the index if it is 1 (see InferenceIndex):
+ *                  long salt, int numBuckets, int maxOrder, int[numBuckets] bucket seeds,
+ *                  int[numObservations * maxOrder + 1] range offsets
+ * </pre>
+ * The file is read through a memory mapping, with bulk copies into the columns.
+ * The models without the inference index are compiled when they are used for the inference (see compile()).
  * @author Hiroshi Manabe
  */
 
-public class HighOrderCRFData implements Serializable {
+public class HighOrderCRFData {
     
-    private static final long serialVersionUID = 100L;
+    static final int MAGIC = 0x484f4643;  // "HOFC"
+    static final int VERSION = 3;
+    static final int FULL_PRECISION_BITS = 64;
     
-    private final List<Feature> featureList;
     private final Map<String, Integer> labelMap;
+    private final SymbolTable observationTable;
+    private final LabelSequenceTable labelSequenceTable;
+    private final int[] featureObservations;
+    private final int[] featureLabelSequences;
+    private final double[] weights;  // null if the weights are quantized
+    private final QuantizedWeights quantizedWeights;  // null if the weights are in full precision
+    private final InferenceIndex inferenceIndex;
     
     /**
      * Constructor.
-     * @param featureList
      * @param labelMap
+     * @param observationTable
+     * @param labelSequenceTable
+     * @param featureObservations the observation IDs of the features
+     * @param featureLabelSequences the label sequence IDs of the features
+     * @param weights the (logarithmic) weights of the features
      */
-    public HighOrderCRFData(List<Feature> featureList, Map<String, Integer> labelMap) {
-        this.featureList = featureList;
-        this.labelMap = labelMap;
+    public HighOrderCRFData(Map<String, Integer> labelMap, SymbolTable observationTable, LabelSequenceTable labelSequenceTable,
+            int[] featureObservations, int[] featureLabelSequences, double[] weights) {
+        this(labelMap, observationTable, labelSequenceTable, featureObservations, featureLabelSequences, weights, null, null);
     }
-
-    public List<Feature> getFeatureList() {
-        return featureList;
+    
+    private HighOrderCRFData(Map<String, Integer> labelMap, SymbolTable observationTable, LabelSequenceTable labelSequenceTable,
+            int[] featureObservations, int[] featureLabelSequences, double[] weights, QuantizedWeights quantizedWeights,
+            InferenceIndex inferenceIndex) {
+        this.labelMap = labelMap;
+        this.observationTable = observationTable;
+        this.labelSequenceTable = labelSequenceTable;
+        this.featureObservations = featureObservations;
+        this.featureLabelSequences = featureLabelSequences;
+        this.weights = weights;
+        this.quantizedWeights = quantizedWeights;
+        this.inferenceIndex = inferenceIndex;
     }
     
     public Map<String, Integer> getLabelMap() {
@@ -60,6 +108,326 @@ public class HighOrderCRFData implements Serializable {
     }
     
     public Map<Integer, String> getReversedLabelMap() {
+        return createReversedLabelMap(labelMap);
+    }
+    
+    public int getNumFeatures() {
+        return featureObservations.length;
+    }
+    
+    public int getNumObservations() {
+        return observationTable.size();
+    }
+    
+    /**
+     * Returns the (logarithmic) weights of the features.
+     * @return the weights, which are newly dequantized if the model is quantized
+     */
+    public double[] getWeights() {
+        return (quantizedWeights == null) ? weights : quantizedWeights.dequantize(getFeatureOrders());
+    }
+    
+    /**
+     * Returns whether the weights of the model are quantized (see quantize()).
+     * @return
+     */
+    public boolean isQuantized() {
+        return quantizedWeights != null;
+    }
+    
+    QuantizedWeights getQuantizedWeights() {
+        return quantizedWeights;
+    }
+    
+    SymbolTable getObservationTable() {
+        return observationTable;
+    }
+    
+    LabelSequenceTable getLabelSequenceTable() {
+        return labelSequenceTable;
+    }
+    
+    int[] getFeatureObservations() {
+        return featureObservations;
+    }
+    
+    int[] getFeatureLabelSequences() {
+        return featureLabelSequences;
+    }
+    
+    InferenceIndex getInferenceIndex() {
+        return inferenceIndex;
+    }
+    
+    int[] getFeatureOrders() {
+        int[] featureOrders = new int[featureLabelSequences.length];
+        for (int i = 0; i < featureOrders.length; ++i) {
+            featureOrders[i] = labelSequenceTable.getLength(featureLabelSequences[i]);
+        }
+        return featureOrders;
+    }
+    
+    /**
+     * Returns the model with the weights quantized to 8 or 16 bits (see QuantizedWeights), which is smaller
+     * and is decoded on the quantized weights. The labels predicted with it can differ slightly from the original ones.
+     * @param bits 8 or 16
+     * @return
+     */
+    public HighOrderCRFData quantize(int bits) {
+        int[] featureOrders = getFeatureOrders();
+        int maxOrder = 0;
+        for (int order : featureOrders) {
+            maxOrder = Math.max(maxOrder, order);
+        }
+        QuantizedWeights newQuantizedWeights = QuantizedWeights.quantize(getWeights(), featureOrders, maxOrder, bits);
+        return new HighOrderCRFData(labelMap, observationTable, labelSequenceTable, featureObservations, featureLabelSequences,
+                null, newQuantizedWeights, inferenceIndex);
+    }
+    
+    /**
+     * Returns the model without the features of small weights, which has fewer patterns for each position
+     * and is therefore decoded faster. The unigram biases (the features with the empty observation) are always kept.
+     * The observations that have no features left are removed, and the features are grouped again (see compile()).
+     * The quantized weights are kept as they are.
+     * @param minAbsWeight the features whose absolute (logarithmic) weights are smaller than this are removed
+     * @param maxFeaturesPerOrder the maximum numbers of the features kept for each order, the i-th element of which
+     *        is for the features of the order i + 1 and the last element of which is also for all the higher orders,
+     *        0 for no limit; the features with the largest absolute weights are kept
+     * @return
+     */
+    public HighOrderCRFData prune(double minAbsWeight, int... maxFeaturesPerOrder) {
+        int[] featureOrders = getFeatureOrders();
+        double[] modelWeights = getWeights();
+        int maxOrder = 0;
+        for (int order : featureOrders) {
+            maxOrder = Math.max(maxOrder, order);
+        }
+        
+        boolean[] isKept = new boolean[modelWeights.length];
+        int[] numCandidates = new int[maxOrder + 1];
+        for (int i = 0; i < modelWeights.length; ++i) {
+            if (isUnigramBias(i, featureOrders)) {
+                continue;
+            }
+            double absWeight = Math.abs(modelWeights[i]);
+            if (absWeight > 0.0 && absWeight >= minAbsWeight) {
+                isKept[i] = true;
+                ++numCandidates[featureOrders[i]];
+            }
+        }
+        
+        // keeps the features of each order down to the absolute weight of the last one within the limit,
+        // and as many of the ones of that weight as the limit allows, in the order of the features
+        double[] thresholds = new double[maxOrder + 1];
+        int[] numTies = new int[maxOrder + 1];
+        for (int k = 1; k <= maxOrder; ++k) {
+            int limit = (maxFeaturesPerOrder.length == 0) ? 0 : maxFeaturesPerOrder[Math.min(k, maxFeaturesPerOrder.length) - 1];
+            if (limit <= 0 || numCandidates[k] <= limit) {
+                numTies[k] = Integer.MAX_VALUE;
+                continue;
+            }
+            double[] absWeights = new double[numCandidates[k]];
+            int n = 0;
+            for (int i = 0; i < modelWeights.length; ++i) {
+                if (isKept[i] && featureOrders[i] == k) {
+                    absWeights[n++] = Math.abs(modelWeights[i]);
+                }
+            }
+            Arrays.sort(absWeights);
+            thresholds[k] = absWeights[absWeights.length - limit];
+            numTies[k] = limit;
+            for (double absWeight : absWeights) {
+                if (absWeight > thresholds[k]) {
+                    --numTies[k];
+                }
+            }
+        }
+        
+        SymbolTable newObservationTable = new SymbolTable();
+        int numKept = 0;
+        int[] keptFeatures = new int[modelWeights.length];
+        for (int i = 0; i < modelWeights.length; ++i) {
+            int k = featureOrders[i];
+            if (isKept[i] && numTies[k] != Integer.MAX_VALUE) {
+                double absWeight = Math.abs(modelWeights[i]);
+                if (absWeight < thresholds[k]) {
+                    isKept[i] = false;
+                } else if (absWeight == thresholds[k]) {
+                    isKept[i] = (numTies[k] > 0);
+                    --numTies[k];
+                }
+            }
+            if (isKept[i] || isUnigramBias(i, featureOrders)) {
+                keptFeatures[numKept++] = i;
+            }
+        }
+        keptFeatures = Arrays.copyOf(keptFeatures, numKept);
+        
+        int[] newObservations = new int[numKept];
+        int[] newLabelSequences = new int[numKept];
+        double[] newWeights = (weights == null) ? null : new double[numKept];
+        for (int j = 0; j < numKept; ++j) {
+            int i = keptFeatures[j];
+            newObservations[j] = newObservationTable.intern(observationTable.get(featureObservations[i]));
+            newLabelSequences[j] = featureLabelSequences[i];
+            if (newWeights != null) {
+                newWeights[j] = weights[i];
+            }
+        }
+        return new HighOrderCRFData(labelMap, newObservationTable, labelSequenceTable, newObservations, newLabelSequences, newWeights,
+                (quantizedWeights == null) ? null : quantizedWeights.select(keptFeatures), null).compile();
+    }
+    
+    private boolean isUnigramBias(int feature, int[] featureOrders) {
+        return featureOrders[feature] == 1 && observationTable.get(featureObservations[feature]).isEmpty();
+    }
+    
+    /**
+     * Returns the model for the inference, which has the same features grouped by the observations and the orders,
+     * with the observation IDs given by the minimal perfect hash function of the inference index (see InferenceIndex).
+     * The feature numbers are changed, so this is meant for the trained models.
+     * @return the model with the inference index, or this model if it already has one
+     */
+    HighOrderCRFData compile() {
+        if (inferenceIndex != null) {
+            return this;
+        }
+        int numObservations = observationTable.size();
+        String[] observations = new String[numObservations];
+        for (int i = 0; i < numObservations; ++i) {
+            observations[i] = observationTable.get(i);
+        }
+        int[] bucketSeeds = new int[InferenceIndex.getNumBuckets(numObservations)];
+        long salt = 0;
+        int[] ids;
+        while ((ids = InferenceIndex.computeIDs(observations, salt, bucketSeeds)) == null) {
+            ++salt;
+        }
+        String[] idObservations = new String[numObservations];
+        for (int i = 0; i < numObservations; ++i) {
+            idObservations[ids[i]] = observations[i];
+        }
+        SymbolTable idObservationTable = new SymbolTable();
+        for (String observation : idObservations) {
+            idObservationTable.intern(observation);
+        }
+        
+        int maxOrder = 0;
+        for (int labelSequence : featureLabelSequences) {
+            maxOrder = Math.max(maxOrder, labelSequenceTable.getLength(labelSequence));
+        }
+        int numFeatures = getNumFeatures();
+        int numRanges = numObservations * maxOrder;
+        int[] rangeOffsets = new int[numRanges + 1];
+        int[] featureRanges = new int[numFeatures];
+        for (int i = 0; i < numFeatures; ++i) {
+            featureRanges[i] = ids[featureObservations[i]] * maxOrder + labelSequenceTable.getLength(featureLabelSequences[i]) - 1;
+            ++rangeOffsets[featureRanges[i] + 1];
+        }
+        for (int r = 0; r < numRanges; ++r) {
+            rangeOffsets[r + 1] += rangeOffsets[r];
+        }
+        int[] fillPositions = Arrays.copyOf(rangeOffsets, numRanges);
+        int[] newObservations = new int[numFeatures];
+        int[] newLabelSequences = new int[numFeatures];
+        int[] sourceFeatures = new int[numFeatures];
+        for (int i = 0; i < numFeatures; ++i) {
+            int j = fillPositions[featureRanges[i]]++;
+            newObservations[j] = ids[featureObservations[i]];
+            newLabelSequences[j] = featureLabelSequences[i];
+            sourceFeatures[j] = i;
+        }
+        double[] newWeights = null;
+        if (weights != null) {
+            newWeights = new double[numFeatures];
+            for (int j = 0; j < numFeatures; ++j) {
+                newWeights[j] = weights[sourceFeatures[j]];
+            }
+        }
+        return new HighOrderCRFData(labelMap, idObservationTable, labelSequenceTable, newObservations, newLabelSequences, newWeights,
+                (quantizedWeights == null) ? null : quantizedWeights.select(sourceFeatures),
+                new InferenceIndex(salt, numObservations, maxOrder, bucketSeeds, rangeOffsets));
+    }
+    
+    /**
+     * Creates the index of the features of the model. The feature numbers are the positions in the columns.
+     * @return
+     */
+    public FeatureIndex createFeatureIndex() {
+        long[] featureKeys = new long[featureObservations.length];
+        for (int i = 0; i < featureKeys.length; ++i) {
+            featureKeys[i] = FeatureIndex.packKey(featureObservations[i], featureLabelSequences[i]);
+        }
+        return new FeatureIndex(observationTable, labelSequenceTable, featureKeys);
+    }
+    
+    /**
+     * Creates the model data from the selected features of an index, keeping only the observations that are used.
+     * @param labelMap
+     * @param featureIndex
+     * @param features the feature numbers in the index
+     * @param weights the weights of the selected features
+     * @return
+     */
+    static HighOrderCRFData create(Map<String, Integer> labelMap, FeatureIndex featureIndex, int[] features, double[] weights) {
+        SymbolTable observationTable = new SymbolTable();
+        int[] featureObservations = new int[features.length];
+        int[] featureLabelSequences = new int[features.length];
+        for (int i = 0; i < features.length; ++i) {
+            int feature = features[i];
+            featureObservations[i] = observationTable.intern(featureIndex.observationTable.get(featureIndex.featureObservations[feature]));
+            featureLabelSequences[i] = featureIndex.featureLabelSequences[feature];
+        }
+        return new HighOrderCRFData(labelMap, observationTable, featureIndex.labelSequenceTable,
+                featureObservations, featureLabelSequences, weights);
+    }
+    
+    /**
+     * Returns the weights of the features of an index that are also in this model, matched by the observations
+     * and the labels, so that a training can start from this model (see HighOrderFastCRF.setInitialModel()).
+     * @param featureIndex
+     * @param labelMap the label map of the index
+     * @return the weights indexed by the feature numbers of the index, 0 for the features that are not in this model
+     */
+    double[] transferWeights(FeatureIndex featureIndex, Map<String, Integer> labelMap) {
+        Map<Integer, String> reversedMap = getReversedLabelMap();
+        int[] labelIDs = new int[reversedMap.size()];
+        for (Map.Entry<Integer, String> entry : reversedMap.entrySet()) {
+            Integer labelID = labelMap.get(entry.getValue());
+            labelIDs[entry.getKey()] = (labelID == null) ? -1 : labelID;
+        }
+        
+        double[] modelWeights = getWeights();
+        double[] ret = new double[featureIndex.getNumFeatures()];
+        int numTransferred = 0;
+        for (int i = 0; i < modelWeights.length; ++i) {
+            int observation = featureIndex.observationTable.lookup(observationTable.get(featureObservations[i]));
+            int[] labels = labelSequenceTable.getLabels(featureLabelSequences[i]);
+            int labelSequence = LabelSequenceTable.EMPTY;
+            for (int k = 0; k < labels.length && labelSequence >= 0; ++k) {
+                labelSequence = (labelIDs[labels[k]] < 0) ? -1 : featureIndex.labelSequenceTable.getChild(labelSequence, labelIDs[labels[k]]);
+            }
+            if (observation < 0 || labelSequence < 0) {
+                continue;
+            }
+            int template = featureIndex.getTemplate(FeatureIndex.packKey(observation, labels.length));
+            if (template < 0) {
+                continue;
+            }
+            for (int j = featureIndex.templateOffsets[template]; j < featureIndex.templateOffsets[template + 1]; ++j) {
+                int feature = featureIndex.templateFeatures[j];
+                if (featureIndex.featureLabelSequences[feature] == labelSequence) {
+                    ret[feature] = modelWeights[i];
+                    ++numTransferred;
+                    break;
+                }
+            }
+        }
+        System.out.println("Initialized " + numTransferred + " of " + ret.length + " features from the initial model");
+        return ret;
+    }
+    
+    static Map<Integer, String> createReversedLabelMap(Map<String, Integer> labelMap) {
         Map<Integer, String> reversedMap = new HashMap<Integer, String>();
         
         for (Map.Entry<String, Integer> entry : labelMap.entrySet()) {
@@ -71,12 +439,13 @@ public class HighOrderCRFData implements Serializable {
     public void DumpFeatures(String filename) throws IOException {
         PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
         Map<Integer, String> reversedMap = getReversedLabelMap();
+        double[] modelWeights = getWeights();
         
-        for (Feature feature : featureList) {
-            out.print(feature.expWeight);
+        for (int i = 0; i < modelWeights.length; ++i) {
+            out.print(Math.exp(modelWeights[i]));
             out.print("\t");
-            out.print(feature.obs);
-            for (int label : feature.pat.labels) {
+            out.print(observationTable.get(featureObservations[i]));
+            for (int label : labelSequenceTable.getLabels(featureLabelSequences[i])) {
                 out.print("\t" + reversedMap.get(label));
             }
             out.println();
@@ -84,4 +453,228 @@ public class HighOrderCRFData implements Serializable {
         out.close();
         
     }
+    
+    /**
+     * Writes the model in the binary format.
+     * @param filename
+     * @throws IOException
+     */
+    public void write(String filename) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * Writes the model in the binary format to a stream, which is left open.
+     * @param out
+     * @throws IOException
+     */
+    void write(DataOutputStream out) throws IOException {
+        Map<Integer, String> reversedMap = getReversedLabelMap();
+        byte[][] observationBytes = new byte[observationTable.size()][];
+        int poolSize = 0;
+        for (int i = 0; i < observationBytes.length; ++i) {
+            observationBytes[i] = observationTable.get(i).getBytes(StandardCharsets.UTF_8);
+            poolSize += observationBytes[i].length;
+        }
+        
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(labelMap.size());
+        out.writeInt(observationBytes.length);
+        out.writeInt(poolSize);
+        out.writeInt(labelSequenceTable.size());
+        out.writeInt(getNumFeatures());
+        
+        for (int i = 0; i < labelMap.size(); ++i) {
+            byte[] bytes = reversedMap.get(i).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        
+        int offset = 0;
+        out.writeInt(offset);
+        for (byte[] bytes : observationBytes) {
+            offset += bytes.length;
+            out.writeInt(offset);
+        }
+        for (byte[] bytes : observationBytes) {
+            out.write(bytes);
+        }
+        
+        for (int i = 0; i < labelSequenceTable.size(); ++i) {
+            out.writeInt(labelSequenceTable.getParent(i));
+        }
+        for (int i = 0; i < labelSequenceTable.size(); ++i) {
+            out.writeInt(labelSequenceTable.getFarthestLabel(i));
+        }
+        
+        for (int observation : featureObservations) {
+            out.writeInt(observation);
+        }
+        for (int labelSequence : featureLabelSequences) {
+            out.writeInt(labelSequence);
+        }
+        if (quantizedWeights == null) {
+            out.writeInt(FULL_PRECISION_BITS);
+            for (double weight : weights) {
+                out.writeDouble(weight);
+            }
+        } else {
+            out.writeInt(quantizedWeights.bits);
+            out.writeInt(quantizedWeights.scales.length);
+            for (double scale : quantizedWeights.scales) {
+                out.writeDouble(scale);
+            }
+            if (quantizedWeights.bits == 8) {
+                out.write(quantizedWeights.byteValues);
+            } else {
+                for (short value : quantizedWeights.shortValues) {
+                    out.writeShort(value);
+                }
+            }
+        }
+        
+        if (inferenceIndex == null) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(1);
+            out.writeLong(inferenceIndex.salt);
+            out.writeInt(inferenceIndex.bucketSeeds.length);
+            out.writeInt(inferenceIndex.maxOrder);
+            for (int seed : inferenceIndex.bucketSeeds) {
+                out.writeInt(seed);
+            }
+            for (int rangeOffset : inferenceIndex.rangeOffsets) {
+                out.writeInt(rangeOffset);
+            }
+        }
+        out.flush();
+    }
+    
+    /**
+     * Reads a model written by write().
+     * @param filename
+     * @return
+     * @throws IOException
+     */
+    public static HighOrderCRFData read(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The model file is too large: " + filename);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, filename);
+        } finally {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Reads a model in the binary format from a buffer.
+     * @param buffer
+     * @param name the name of the source for the error messages
+     * @return
+     * @throws IOException
+     */
+    static HighOrderCRFData read(ByteBuffer buffer, String name) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a model file: " + name);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported model version " + version + ": " + name);
+        }
+        int numLabels = buffer.getInt();
+        int numObservations = buffer.getInt();
+        int poolSize = buffer.getInt();
+        int numLabelSequences = buffer.getInt();
+        int numFeatures = buffer.getInt();
+        
+        Map<String, Integer> labelMap = new HashMap<String, Integer>();
+        for (int i = 0; i < numLabels; ++i) {
+            labelMap.put(readString(buffer, buffer.getInt()), i);
+        }
+        
+        int[] offsets = readInts(buffer, numObservations + 1);
+        byte[] pool = new byte[poolSize];
+        buffer.get(pool);
+        SymbolTable observationTable = new SymbolTable();
+        for (int i = 0; i < numObservations; ++i) {
+            observationTable.intern(new String(pool, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8));
+        }
+        
+        int[] parents = readInts(buffer, numLabelSequences);
+        int[] farthestLabels = readInts(buffer, numLabelSequences);
+        LabelSequenceTable labelSequenceTable = new LabelSequenceTable();
+        for (int i = 1; i < numLabelSequences; ++i) {
+            if (labelSequenceTable.intern(parents[i], farthestLabels[i]) != i) {
+                throw new IOException("Broken label sequence table: " + name);
+            }
+        }
+        
+        int[] featureObservations = readInts(buffer, numFeatures);
+        int[] featureLabelSequences = readInts(buffer, numFeatures);
+        double[] weights = null;
+        QuantizedWeights quantizedWeights = null;
+        int weightBits = buffer.getInt();
+        if (weightBits == FULL_PRECISION_BITS) {
+            weights = readDoubles(buffer, numFeatures);
+        } else {
+            try {
+                QuantizedWeights.checkBits(weightBits);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unsupported weight encoding " + weightBits + ": " + name);
+            }
+            double[] scales = readDoubles(buffer, buffer.getInt());
+            byte[] byteValues = null;
+            short[] shortValues = null;
+            if (weightBits == 8) {
+                byteValues = new byte[numFeatures];
+                buffer.get(byteValues);
+            } else {
+                shortValues = new short[numFeatures];
+                buffer.asShortBuffer().get(shortValues);
+                buffer.position(buffer.position() + numFeatures * 2);
+            }
+            quantizedWeights = new QuantizedWeights(weightBits, scales, byteValues, shortValues);
+        }
+        
+        InferenceIndex inferenceIndex = null;
+        if (buffer.getInt() != 0) {
+            long salt = buffer.getLong();
+            int numBuckets = buffer.getInt();
+            int maxOrder = buffer.getInt();
+            int[] bucketSeeds = readInts(buffer, numBuckets);
+            int[] rangeOffsets = readInts(buffer, numObservations * maxOrder + 1);
+            inferenceIndex = new InferenceIndex(salt, numObservations, maxOrder, bucketSeeds, rangeOffsets);
+        }
+        return new HighOrderCRFData(labelMap, observationTable, labelSequenceTable,
+                featureObservations, featureLabelSequences, weights, quantizedWeights, inferenceIndex);
+    }
+    
+    static int[] readInts(ByteBuffer buffer, int length) {
+        int[] ret = new int[length];
+        buffer.asIntBuffer().get(ret);
+        buffer.position(buffer.position() + length * 4);
+        return ret;
+    }
+    
+    static double[] readDoubles(ByteBuffer buffer, int length) {
+        double[] ret = new double[length];
+        buffer.asDoubleBuffer().get(ret);
+        buffer.position(buffer.position() + length * 8);
+        return ret;
+    }
+    
+    private static String readString(ByteBuffer buffer, int byteLength) {
+        byte[] bytes = new byte[byteLength];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
 }
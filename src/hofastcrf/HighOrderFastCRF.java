@@ -20,21 +20,17 @@ along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
 
 package hofastcrf;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.util.ArrayList;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import parallel.Scheduler;
+import parallel.WorkerPool;
+import edu.stanford.nlp.optimization.Evaluator;
 import edu.stanford.nlp.optimization.QNMinimizer;
 
 /**
@@ -43,10 +39,104 @@ import edu.stanford.nlp.optimization.QNMinimizer;
  */
 public class HighOrderFastCRF<T> {
 
-    private HighOrderCRFData modelData;
+    static final int PIPELINE_CHUNK_SIZE = 64;  // the number of the sequences read at once by decode() from a reader
+    static final int PIPELINE_CHUNKS_PER_THREAD = 4;  // the number of the pending chunks for each decoding thread
+
+    private HighOrderCRFData modelData;
+    private File latticeStoreFile = null;
+    private StochasticTrainer stochasticTrainer = null;
+    private int[] minFeatureCounts = null;
+    private int sketchWidth = 0;
+    private int sketchDepth = 0;
+    private int beamSize = 0;
+    private double beamThreshold = Double.POSITIVE_INFINITY;
+    private File checkpointFile = null;
+    private int checkpointInterval = 1;
+    private HighOrderCRFData initialModel = null;
+    private Tagger<T> tagger = null;
+    
+    public HighOrderFastCRF(boolean isDebugging) {
+        DebugInfoManager.getInstance().setDebugMode(isDebugging);
+    }
+    
+    /**
+     * Makes the training keep the lattices in a file instead of on the heap (see LatticeStore).
+     * The file is read back through a memory mapping in every iteration and deleted after the training.
+     * @param latticeStoreFile the file for the lattices, or null to keep the lattices on the heap
+     */
+    public void setLatticeStoreFile(File latticeStoreFile) {
+        this.latticeStoreFile = latticeStoreFile;
+    }
+    
+    /**
+     * Makes the training use the mini-batch stochastic trainer instead of the QNMinimizer.
+     * The maximum iteration count of train() is then the maximum number of the epochs.
+     * @param stochasticTrainer the trainer, or null to use the QNMinimizer
+     */
+    public void setStochasticTrainer(StochasticTrainer stochasticTrainer) {
+        this.stochasticTrainer = stochasticTrainer;
+    }
+    
+    /**
+     * Sets the minimum counts in the training data of the features to be used.
+     * The rarer features are dropped before the lattices are built.
+     * @param minFeatureCounts the minimum counts, the i-th element of which is for the features of the order i + 1
+     * and the last element of which is also for all the higher orders
+     */
+    public void setMinFeatureCounts(int... minFeatureCounts) {
+        this.minFeatureCounts = minFeatureCounts.clone();
+    }
+    
+    /**
+     * Makes the training count the features in two passes, the first of which only fills a count-min sketch,
+     * so that the rare features dropped by the minimum counts are never counted exactly.
+     * The sketch takes width * depth * 4 bytes, and a width several times the number of the distinct features
+     * keeps the overestimation small.
+     * @param width the width of the sketch, or 0 to count in one pass
+     * @param depth the depth (the number of the hash functions) of the sketch
+     */
+    public void setFeatureCountSketch(int width, int depth) {
+        this.sketchWidth = width;
+        this.sketchDepth = depth;
+    }
+    
+    /**
+     * Makes the training save its state periodically, so that it can be resumed by resumeTraining() after a crash.
+     * The first checkpoint is saved just after the feature counting, and the later ones after every checkpointInterval
+     * iterations: the epochs of the stochastic trainer, or the iterations of the QNMinimizer.
+     * @param checkpointFile the file for the checkpoints, or null not to save checkpoints
+     * @param checkpointInterval the number of the iterations between the checkpoints
+     */
+    public void setCheckpoint(File checkpointFile, int checkpointInterval) {
+        if (checkpointInterval <= 0) {
+            throw new IllegalArgumentException("The checkpoint interval must be positive: " + checkpointInterval);
+        }
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = checkpointInterval;
+    }
+    
+    /**
+     * Makes the training start from the weights of an existing model (for example, one read by HighOrderCRFData.read()),
+     * so that a model retrained with more data converges in fewer iterations.
+     * The labels of the model are kept with their IDs, and the features that are not in the model start from 0.
+     * The features of the model are still subject to the feature counting of the new training data.
+     * @param initialModel the model, or null to start from 0
+     */
+    public void setInitialModel(HighOrderCRFData initialModel) {
+        this.initialModel = initialModel;
+    }
     
-    public HighOrderFastCRF(boolean isDebugging) {
-        DebugInfoManager.getInstance().setDebugMode(isDebugging);
+    /**
+     * Makes the decoding keep only the best patterns at each position, which is faster but not exact.
+     * The exact decoding is restored with 0 and Double.POSITIVE_INFINITY.
+     * @param beamSize the maximum number of the patterns kept at each position, or 0 for no limit
+     * @param beamThreshold the maximum difference of the log scores from the best one at each position,
+     * or Double.POSITIVE_INFINITY for no limit
+     */
+    public synchronized void setDecodingBeam(int beamSize, double beamThreshold) {
+        this.beamSize = beamSize;
+        this.beamThreshold = beamThreshold;
+        tagger = null;
     }
     
     /**
@@ -60,76 +150,374 @@ public class HighOrderFastCRF<T> {
      * @param regularizationCoefficient regularization coefficient (either for L1 or L2)
      * @param epsilonForConvergence
      * @throws IOException 
+     * @throws InterruptedException
      */
     public void train(List<ObservationSequence<T>> observationSequenceList, FeatureTemplateGenerator<T> featureTemplateGenerator,
             int maxLabelLength, int maxIters, int concurrency,
-            boolean useL1Regularization, double regularizationCoefficient, double epsilonForConvergence) throws IOException {
+            boolean useL1Regularization, double regularizationCoefficient, double epsilonForConvergence)
+            throws IOException, InterruptedException {
         ObservationSet<T> observationSet = new ObservationSet<T>(observationSequenceList);
-        Map<String, Integer> labelMap = observationSet.generateLabelMap();
-        DataSet dataSet = observationSet.generateDataSet(featureTemplateGenerator, labelMap, maxLabelLength);
-        Map<Feature, Integer> featureCountMap = dataSet.generateFeatureCountMap();
-        Map<FeatureTemplate, List<Feature>> featureTemplateToFeatureMap = new HashMap<FeatureTemplate, List<Feature>>();
+        Map<String, Integer> labelMap = (initialModel != null) ? observationSet.generateLabelMap(initialModel.getLabelMap()) :
+            observationSet.generateLabelMap();
+        SymbolTable observationTable = new SymbolTable();
+        LabelSequenceTable labelSequenceTable = new LabelSequenceTable();
+        FeatureIndex featureIndex;
+        double[] lambda;
         
-        List<Feature> featureList = new ArrayList<Feature>();
-        
-        if (DebugInfoManager.getInstance().getDebugMode()) {
-            HighOrderCRFData data = new HighOrderCRFData(featureList, labelMap);
-            DebugInfoManager.getInstance().setDebugData("ReversedLabelMap", data.getReversedLabelMap());
+        WorkerPool pool = new WorkerPool(concurrency);
+        try {
+            DataSet dataSet = observationSet.generateDataSet(featureTemplateGenerator, labelMap, maxLabelLength, observationTable, pool);
+            CountMinSketch sketch = (sketchWidth > 0) ? new CountMinSketch(sketchWidth, sketchDepth) : null;
+            LongIntHashMap featureCountMap = dataSet.generateFeatureCountMap(labelSequenceTable, minFeatureCounts, sketch, pool);
+            
+            if (DebugInfoManager.getInstance().getDebugMode()) {
+                DebugInfoManager.getInstance().setDebugData("ReversedLabelMap", HighOrderCRFData.createReversedLabelMap(labelMap));
+            }
+            long[] featureKeys = featureCountMap.keys();
+            Arrays.sort(featureKeys);  // so that the feature numbers do not depend on how the counts were merged
+            int[] featureCountArray = new int[featureKeys.length];
+            for (int i = 0; i < featureKeys.length; ++i) {
+                featureCountArray[i] = featureCountMap.get(featureKeys[i], 0);
+            }
+            featureIndex = new FeatureIndex(observationTable, labelSequenceTable, featureKeys);
+            
+            TrainingCheckpoint checkpoint = null;
+            if (checkpointFile != null || initialModel != null) {
+                int method = (stochasticTrainer != null) ? stochasticTrainer.method : TrainingCheckpoint.QUASI_NEWTON;
+                checkpoint = TrainingCheckpoint.create(labelMap, featureIndex, featureCountArray, method, maxLabelLength);
+                if (initialModel != null) {
+                    double[] initialWeights = initialModel.transferWeights(featureIndex, labelMap);
+                    System.arraycopy(initialWeights, 0, checkpoint.weights, 0, initialWeights.length);
+                }
+                if (checkpointFile != null) {
+                    checkpoint.write(checkpointFile);
+                }
+            }
+            lambda = optimize(dataSet, featureIndex, featureCountArray, checkpoint, checkpointFile, pool, maxIters,
+                    useL1Regularization, regularizationCoefficient, epsilonForConvergence);
+        } finally {
+            pool.shutdown();
         }
-        int[] featureCountArray = new int[featureCountMap.size()];
         
-        int count = 0;
-        for (Map.Entry<Feature, Integer> entry : featureCountMap.entrySet()) {
-            Feature f = entry.getKey();
-            featureList.add(f);
-            featureCountArray[count] = entry.getValue();
+        setModelData(labelMap, featureIndex, lambda);
+        dumpFeatures("features.txt");
+    }
+    
+    /**
+     * Resumes the training from a checkpoint saved by train() (see setCheckpoint()).
+     * The features of the checkpoint are used without counting them again, and the optimizer continues
+     * from its saved state. The optimizer (the QNMinimizer or the method of the stochastic trainer) must be the same
+     * as that of the interrupted training. The checkpoints continue to be saved to the file set by setCheckpoint(),
+     * or otherwise to the file of the checkpoint. If the checkpoint has already reached maxIters,
+     * the model is made from its weights without running the optimizer.
+     * @param resumedCheckpointFile the file of the checkpoint
+     * @param observationSequenceList the list of the observations, which must be the same as that of the interrupted training
+     * @param featureTemplateGenerator the feature template generator that generate feature templates from the observations
+     * @param maxIters the maximum iteration counts, including the iterations before the checkpoint
+     * @param concurrency
+     * @param useL1Regularization true if use the L1 regularization, false if use the L2 regularization
+     * @param regularizationCoefficient regularization coefficient (either for L1 or L2)
+     * @param epsilonForConvergence
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void resumeTraining(File resumedCheckpointFile, List<ObservationSequence<T>> observationSequenceList,
+            FeatureTemplateGenerator<T> featureTemplateGenerator, int maxIters, int concurrency,
+            boolean useL1Regularization, double regularizationCoefficient, double epsilonForConvergence)
+            throws IOException, InterruptedException {
+        TrainingCheckpoint checkpoint = TrainingCheckpoint.read(resumedCheckpointFile);
+        Map<String, Integer> labelMap = checkpoint.featureData.getLabelMap();
+        FeatureIndex featureIndex = checkpoint.featureData.createFeatureIndex();
+        System.out.println("Resuming the training from the iteration " + checkpoint.getIteration());
+        double[] lambda;
+        
+        WorkerPool pool = new WorkerPool(concurrency);
+        try {
+            ObservationSet<T> observationSet = new ObservationSet<T>(observationSequenceList);
+            DataSet dataSet = observationSet.generateDataSet(featureTemplateGenerator, labelMap, checkpoint.maxOrder,
+                    featureIndex.getObservationTable(), pool);
+            lambda = optimize(dataSet, featureIndex, checkpoint.featureCounts, checkpoint,
+                    (checkpointFile != null) ? checkpointFile : resumedCheckpointFile, pool, maxIters,
+                    useL1Regularization, regularizationCoefficient, epsilonForConvergence);
+        } finally {
+            pool.shutdown();
+        }
+        
+        setModelData(labelMap, featureIndex, lambda);
+        dumpFeatures("features.txt");
+    }
+    
+    /**
+     * Builds the lattices and estimates the feature weights with the QNMinimizer or the stochastic trainer.
+     * @param dataSet
+     * @param featureIndex
+     * @param featureCountArray the counts of the features in the training data
+     * @param checkpoint the checkpoint to start from, or null to start from 0
+     * @param checkpointFile the file to save the checkpoints, or null
+     * @param pool
+     * @param maxIters the maximum iteration counts, including the iterations before the checkpoint
+     * @param useL1Regularization
+     * @param regularizationCoefficient
+     * @param epsilonForConvergence
+     * @return the feature weights
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private double[] optimize(DataSet dataSet, FeatureIndex featureIndex, int[] featureCountArray,
+            TrainingCheckpoint checkpoint, File checkpointFile, WorkerPool pool, int maxIters,
+            boolean useL1Regularization, double regularizationCoefficient, double epsilonForConvergence)
+            throws IOException, InterruptedException {
+        if (checkpoint != null && checkpoint.getIteration() >= maxIters) {
+            // the training of the checkpoint is already finished, so the optimizer must not run or save it again
+            System.out.println("The checkpoint has already reached the maximum iteration count");
+            return checkpoint.weights.clone();
+        }
+        LatticeStore latticeStore = null;
+        try {
+            List<PatternSetSequence> patternSetSequenceList;
+            if (latticeStoreFile != null) {
+                latticeStore = LatticeStore.create(latticeStoreFile, dataSet, featureIndex, pool);
+                patternSetSequenceList = latticeStore;
+            } else {
+                patternSetSequenceList = dataSet.generatePatternSetSequenceList(featureIndex, pool);
+            }
             
-            FeatureTemplate ft = f.createFeatureTemplate();
-            if (!featureTemplateToFeatureMap.containsKey(ft)) {
-                featureTemplateToFeatureMap.put(ft, new ArrayList<Feature>());
+            if (stochasticTrainer != null) {
+                stochasticTrainer.setCheckpoint(checkpoint, checkpointFile, checkpointInterval);
+                return stochasticTrainer.train(patternSetSequenceList, featureIndex.getNumFeatures(), pool, maxIters,
+                        useL1Regularization, regularizationCoefficient, epsilonForConvergence);
             }
-            featureTemplateToFeatureMap.get(ft).add(f);
-            ++count;
-        }
-        
-        List<PatternSetSequence> patternSetSequenceList = dataSet.generatePatternSetSequenceList(featureTemplateToFeatureMap);
+            QNMinimizer qn = new QNMinimizer();
+            if (useL1Regularization) {
+                qn.useOWLQN(true, regularizationCoefficient);
+                regularizationCoefficient = 0.0;
+            }
+            
+            Function df = new Function(patternSetSequenceList, featureCountArray, pool, regularizationCoefficient);
+            double[] lambda = new double[featureIndex.getNumFeatures()];
+            if (checkpoint != null) {
+                if (checkpointFile != null) {
+                    qn.setEvaluators(1, new Evaluator[] { new CheckpointEvaluator(checkpoint, checkpointFile, checkpointInterval) });
+                }
+                System.arraycopy(checkpoint.weights, 0, lambda, 0, lambda.length);
+                maxIters -= checkpoint.getIteration();
+            }
+            return qn.minimize(df, epsilonForConvergence, lambda, maxIters);
+        } finally {
+            if (latticeStore != null) {
+                latticeStore.close();
+            }
+        }
+    }
+    
+    /**
+     * Executes the training on the training workers (see TrainingWorker), each of which owns a shard of the training sequences.
+     * The workers have to be waiting for the connection. The QNMinimizer runs on this process, which keeps only the features,
+     * while the lattices are kept by the workers.
+     * The minimum feature counts are applied to the merged counts, while the stochastic trainer and the lattice store file
+     * are not used.
+     * @param workerAddresses the addresses of the workers, in the order of their shards
+     * @param maxLabelLength the maximum length of the feature labels
+     * @param maxIters the maximum iteration counts
+     * @param useL1Regularization true if use the L1 regularization, false if use the L2 regularization
+     * @param regularizationCoefficient regularization coefficient (either for L1 or L2)
+     * @param epsilonForConvergence
+     * @throws IOException
+     */
+    public void trainDistributed(List<InetSocketAddress> workerAddresses, int maxLabelLength, int maxIters,
+            boolean useL1Regularization, double regularizationCoefficient, double epsilonForConvergence) throws IOException {
+        Map<String, Integer> labelMap = new HashMap<String, Integer>();
+        SymbolTable observationTable = new SymbolTable();
+        LabelSequenceTable labelSequenceTable = new LabelSequenceTable();
+        FeatureIndex featureIndex;
+        double[] lambda;
         
-        QNMinimizer qn = new QNMinimizer();
-        if (useL1Regularization) {
-            qn.useOWLQN(true, regularizationCoefficient);
-            regularizationCoefficient = 0.0;
-        }
+        TrainingCoordinator coordinator = new TrainingCoordinator(workerAddresses);
+        try {
+            LongIntHashMap featureCountMap = coordinator.countFeatures(maxLabelLength, minFeatureCounts, labelMap,
+                    observationTable, labelSequenceTable);
+            long[] featureKeys = featureCountMap.keys();
+            Arrays.sort(featureKeys);
+            int[] featureCountArray = new int[featureKeys.length];
+            for (int i = 0; i < featureKeys.length; ++i) {
+                featureCountArray[i] = featureCountMap.get(featureKeys[i], 0);
+            }
+            featureIndex = new FeatureIndex(observationTable, labelSequenceTable, featureKeys);
+            
+            QNMinimizer qn = new QNMinimizer();
+            if (useL1Regularization) {
+                qn.useOWLQN(true, regularizationCoefficient);
+                regularizationCoefficient = 0.0;
+            }
+            coordinator.setFeatures(labelMap, featureIndex, featureCountArray, regularizationCoefficient);
+            lambda = new double[featureIndex.getNumFeatures()];
+            lambda = qn.minimize(coordinator, epsilonForConvergence, lambda, maxIters);
+        } finally {
+            coordinator.close();
+        }
         
-        Function df = new Function(patternSetSequenceList, featureList, featureCountArray, concurrency, regularizationCoefficient);
-        double[] lambda = new double[featureList.size()];
-        lambda = qn.minimize(df, epsilonForConvergence, lambda, maxIters);
-        
-        List<Feature> featureListToSave = new ArrayList<Feature>();
-        for (int i = 0; i < lambda.length; ++i) {
-            Feature feature = featureList.get(i);
-            if (lambda[i] != 0.0 || (feature.obs.isEmpty() && feature.pat.getLength() == 1)) {
-                feature.reset(lambda[i]);
-                featureListToSave.add(feature);
-            } else {
-                feature.reset(lambda[i]);
+        setModelData(labelMap, featureIndex, lambda);
+        dumpFeatures("features.txt");
+    }
+    
+    /**
+     * Sets the trained model, leaving out the features whose weights are 0 except the unigram biases.
+     * @param labelMap
+     * @param featureIndex
+     * @param lambda the weights of the features
+     */
+    private void setModelData(Map<String, Integer> labelMap, FeatureIndex featureIndex, double[] lambda) {
+        SymbolTable observationTable = featureIndex.getObservationTable();
+        LabelSequenceTable labelSequenceTable = featureIndex.getLabelSequenceTable();
+        int numFeaturesToSave = 0;
+        int[] featuresToSave = new int[lambda.length];
+        double[] weightsToSave = new double[lambda.length];
+        for (int i = 0; i < lambda.length; ++i) {
+            boolean isUnigramBias = observationTable.get(featureIndex.featureObservations[i]).isEmpty() &&
+                    labelSequenceTable.getLength(featureIndex.featureLabelSequences[i]) == 1;
+            if (lambda[i] != 0.0 || isUnigramBias) {
+                featuresToSave[numFeaturesToSave] = i;
+                weightsToSave[numFeaturesToSave] = lambda[i];
+                ++numFeaturesToSave;
             }
         }
-        modelData = new HighOrderCRFData(featureListToSave, labelMap);
-        dumpFeatures("features.txt");
+        modelData = HighOrderCRFData.create(labelMap, featureIndex, Arrays.copyOf(featuresToSave, numFeaturesToSave),
+                Arrays.copyOf(weightsToSave, numFeaturesToSave)).compile();
+        tagger = null;
+    }
+    
+    /**
+     * Quantizes the weights of the trained or read model to 8 or 16 bits for the inference (see HighOrderCRFData.quantize()).
+     * The model written after this is the quantized one.
+     * @param bits 8 or 16
+     */
+    public synchronized void quantize(int bits) {
+        modelData = modelData.quantize(bits);
+        tagger = null;
+    }
+    
+    /**
+     * Removes the features of small weights from the trained or read model (see HighOrderCRFData.prune()).
+     * The model written after this is the pruned one.
+     * @param minAbsWeight the features whose absolute weights are smaller than this are removed
+     * @param maxFeaturesPerOrder the maximum numbers of the features kept for each order, 0 for no limit
+     */
+    public synchronized void prune(double minAbsWeight, int... maxFeaturesPerOrder) {
+        HighOrderCRFData prunedData = modelData.prune(minAbsWeight, maxFeaturesPerOrder);
+        System.out.println("Pruned the model from " + modelData.getNumFeatures() + " to " + prunedData.getNumFeatures() + " features and from "
+                + modelData.getNumObservations() + " to " + prunedData.getNumObservations() + " observations");
+        modelData = prunedData;
+        tagger = null;
+    }
+    
+    /**
+     * Returns the tagger of the model with the decoding beam set by setDecodingBeam().
+     * The tagger is created by the first call after the model is trained or read, and is shared by the later calls
+     * with the same feature template generator, so that the indices of the model are not built for every call.
+     * @param featureTemplateGenerator
+     * @return
+     */
+    public synchronized Tagger<T> getTagger(FeatureTemplateGenerator<T> featureTemplateGenerator) {
+        if (tagger == null || tagger.generator != featureTemplateGenerator) {
+            tagger = new Tagger<T>(modelData, featureTemplateGenerator, beamSize, beamThreshold);
+        }
+        return tagger;
     }
 
+    /**
+     * Infers the labels of the observation sequences.
+     * @param observationSequenceList
+     * @param featureTemplateGenerator
+     * @param concurrency the number of the decoding threads
+     * @return the predicted labels, in the order of the observation sequences
+     * @throws InterruptedException
+     */
     public String[][] decode(List<ObservationSequence<T>> observationSequenceList, FeatureTemplateGenerator<T> featureTemplateGenerator,
             int concurrency) throws InterruptedException {
         if (DebugInfoManager.getInstance().getDebugMode()) {
             DebugInfoManager.getInstance().setDebugData("ReversedLabelMap", modelData.getReversedLabelMap());
         }
-        Decoder<T> decoder = new Decoder<T>(observationSequenceList, featureTemplateGenerator, modelData.getFeatureList(),
-                modelData.getLabelMap());
-        Scheduler sch = new Scheduler(decoder, 1, Scheduler.DYNAMIC_NEXT_AVAILABLE);
+        Decoder<T> decoder = new Decoder<T>(observationSequenceList, getTagger(featureTemplateGenerator));
+        Scheduler sch = new Scheduler(decoder, Math.max(concurrency, 1), Scheduler.DYNAMIC_NEXT_AVAILABLE);
         sch.run();
         return decoder.getPredictedLabels();
     }
     
+    /**
+     * Infers the labels of the observation sequences of the reader and writes them to the writer in the same order,
+     * without holding all the sequences (see TaggingPipeline). The reader and the writer are not closed.
+     * @param reader
+     * @param writer
+     * @param featureTemplateGenerator
+     * @param concurrency the number of the decoding threads
+     * @return the number of the sequences
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public long decode(SequenceReader<T> reader, SequenceWriter<T> writer, FeatureTemplateGenerator<T> featureTemplateGenerator,
+            int concurrency) throws IOException, InterruptedException {
+        TaggingPipeline<T> pipeline = new TaggingPipeline<T>(getTagger(featureTemplateGenerator), concurrency,
+                PIPELINE_CHUNK_SIZE, PIPELINE_CHUNKS_PER_THREAD * Math.max(concurrency, 1));
+        return pipeline.run(reader, writer);
+    }
+    
+    /**
+     * Infers the n best label sequences of the observation sequences, with their conditional probabilities.
+     * Each sequence is decoded in one pass over its lattice. The decoding beam is not used.
+     * @param observationSequenceList
+     * @param featureTemplateGenerator
+     * @param n the number of the label sequences for each observation sequence
+     * @param concurrency the number of the decoding threads
+     * @return the n best label sequences, in the order of the observation sequences
+     * @throws InterruptedException
+     */
+    public NBestResult[] decodeNBest(List<ObservationSequence<T>> observationSequenceList, FeatureTemplateGenerator<T> featureTemplateGenerator,
+            int n, int concurrency) throws InterruptedException {
+        if (n <= 0) {
+            throw new IllegalArgumentException("The number of the label sequences must be positive: " + n);
+        }
+        Decoder<T> decoder = new Decoder<T>(observationSequenceList, getTagger(featureTemplateGenerator));
+        decoder.setNBestSize(n);
+        Scheduler sch = new Scheduler(decoder, Math.max(concurrency, 1), Scheduler.DYNAMIC_NEXT_AVAILABLE);
+        sch.run();
+        return decoder.getNBestResults();
+    }
+    
+    /**
+     * Computes the marginal probabilities of the labels at each position of the observation sequences
+     * with the forward backward algorithm.
+     * @param observationSequenceList
+     * @param featureTemplateGenerator
+     * @param concurrency the number of the threads
+     * @param confidences the array to which the probabilities of the best label sequences are set, or null
+     * @return the marginal probabilities indexed by the sequences, the positions and the labels (see getLabels())
+     * @throws InterruptedException
+     */
+    public double[][][] marginals(List<ObservationSequence<T>> observationSequenceList, FeatureTemplateGenerator<T> featureTemplateGenerator,
+            int concurrency, double[] confidences) throws InterruptedException {
+        Decoder<T> decoder = new Decoder<T>(observationSequenceList, getTagger(featureTemplateGenerator));
+        decoder.setComputingMarginals(true);
+        Scheduler sch = new Scheduler(decoder, Math.max(concurrency, 1), Scheduler.DYNAMIC_NEXT_AVAILABLE);
+        sch.run();
+        if (confidences != null) {
+            System.arraycopy(decoder.getConfidences(), 0, confidences, 0, observationSequenceList.size());
+        }
+        return decoder.getMarginals();
+    }
+    
+    /**
+     * Returns the labels of the model in the order of the indices used by marginals().
+     * @return
+     */
+    public String[] getLabels() {
+        Map<Integer, String> reversedLabelMap = modelData.getReversedLabelMap();
+        String[] ret = new String[reversedLabelMap.size()];
+        for (Map.Entry<Integer, String> entry : reversedLabelMap.entrySet()) {
+            ret[entry.getKey()] = entry.getValue();
+        }
+        return ret;
+    }
+    
     public String[][] extractLabels(List<ObservationSequence<T>> observationSequenceList) {
         String[][] ret = new String[observationSequenceList.size()][];
         for (int i = 0; i < observationSequenceList.size(); ++i) {
@@ -144,14 +532,11 @@ public class HighOrderFastCRF<T> {
     }
 
     public void write(String filename) throws IOException {
-        ObjectOutput output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
-        output.writeObject(modelData);
-        output.close();
+        modelData.write(filename);
     }
     
-    public void read(String filename) throws IOException, ClassNotFoundException {
-        ObjectInput input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)));
-        modelData = (HighOrderCRFData)input.readObject();
-        input.close();
+    public synchronized void read(String filename) throws IOException {
+        modelData = HighOrderCRFData.read(filename);
+        tagger = null;
     }
 }
@@ -0,0 +1,214 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.Arrays;
+
+/**
+ * The read-only index of the features of a model for the inference.
+ *
+ * The observations of the model are mapped to their IDs by a minimal perfect hash function
+ * (the CHD algorithm, Belazzougui et al. 2009): an observation is hashed to a bucket, and the seed of the bucket
+ * chooses the second hash that gives its ID. An unknown observation is also mapped to some ID,
+ * so the string of the ID is compared with it.
+ * The features of the model are grouped by the observations and then by the orders (see HighOrderCRFData.compile()),
+ * so the features of an observation and an order are a contiguous range of the feature numbers.
+ * The hash is a function of the characters only, so the index is saved with the model and is shared by the threads.
+ * @author Hiroshi Manabe
+ */
+class InferenceIndex {
+    
+    static final int BUCKET_LOAD = 4;  // the average number of the observations in a bucket
+    
+    final long salt;
+    final int numObservations;
+    final int maxOrder;
+    final int[] bucketSeeds;
+    final int[] rangeOffsets;  // the features of the observation o and the order k are in [rangeOffsets[o * maxOrder + k - 1], rangeOffsets[o * maxOrder + k])
+    
+    /**
+     * Constructor.
+     * @param salt the salt of the hash of the observations
+     * @param numObservations
+     * @param maxOrder
+     * @param bucketSeeds
+     * @param rangeOffsets
+     */
+    InferenceIndex(long salt, int numObservations, int maxOrder, int[] bucketSeeds, int[] rangeOffsets) {
+        this.salt = salt;
+        this.numObservations = numObservations;
+        this.maxOrder = maxOrder;
+        this.bucketSeeds = bucketSeeds;
+        this.rangeOffsets = rangeOffsets;
+    }
+    
+    /**
+     * Returns the ID of the observation.
+     * @param observation
+     * @param observationTable the observation table of the model, whose IDs are given by the hash function
+     * @return the ID, or -1 if the observation is not in the model
+     */
+    int lookup(String observation, SymbolTable observationTable) {
+        if (numObservations == 0) {
+            return -1;
+        }
+        long hash = hash(observation, salt);
+        int id = getSlot(hash, bucketSeeds[getBucket(hash, bucketSeeds.length)], numObservations);
+        return observation.equals(observationTable.get(id)) ? id : -1;
+    }
+    
+    /**
+     * Returns the first feature number of the observation and the order.
+     * @param observation the observation ID
+     * @param order which must be between 1 and maxOrder
+     * @return
+     */
+    int getStart(int observation, int order) {
+        return rangeOffsets[observation * maxOrder + order - 1];
+    }
+    
+    /**
+     * Returns the feature number next to the last one of the observation and the order.
+     * @param observation the observation ID
+     * @param order which must be between 1 and maxOrder
+     * @return
+     */
+    int getEnd(int observation, int order) {
+        return rangeOffsets[observation * maxOrder + order];
+    }
+    
+    static int getNumBuckets(int numObservations) {
+        return Math.max(1, (numObservations + BUCKET_LOAD - 1) / BUCKET_LOAD);
+    }
+    
+    /**
+     * Hashes a string into 64 bits (FNV-1a on the characters with a final mix).
+     * @param str
+     * @param salt
+     * @return
+     */
+    static long hash(String str, long salt) {
+        long h = 0xcbf29ce484222325L ^ salt;
+        for (int i = 0; i < str.length(); ++i) {
+            h = (h ^ str.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+    
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+    
+    private static int getBucket(long hash, int numBuckets) {
+        return (int)(((hash >>> 32) * numBuckets) >>> 32);
+    }
+    
+    private static int getSlot(long hash, int seed, int numSlots) {
+        long h = mix(hash + seed * 0x9e3779b97f4a7c15L);
+        return (int)(((h >>> 32) * numSlots) >>> 32);
+    }
+    
+    /**
+     * Computes the minimal perfect hash function of the strings.
+     * The buckets are placed from the largest one, each with the first seed that maps its strings to free IDs.
+     * @param strings the distinct strings
+     * @param salt
+     * @param bucketSeeds the array of getNumBuckets(strings.length) elements to which the seeds are set
+     * @return the IDs of the strings, or null if two strings have the same hash with the salt
+     */
+    static int[] computeIDs(String[] strings, long salt, int[] bucketSeeds) {
+        int numStrings = strings.length;
+        int numBuckets = bucketSeeds.length;
+        long[] hashes = new long[numStrings];
+        for (int i = 0; i < numStrings; ++i) {
+            hashes[i] = hash(strings[i], salt);
+        }
+        long[] sortedHashes = hashes.clone();
+        Arrays.sort(sortedHashes);
+        for (int i = 1; i < numStrings; ++i) {
+            if (sortedHashes[i] == sortedHashes[i - 1]) {
+                return null;
+            }
+        }
+        
+        int[] bucketOffsets = new int[numBuckets + 1];
+        int[] buckets = new int[numStrings];
+        for (int i = 0; i < numStrings; ++i) {
+            buckets[i] = getBucket(hashes[i], numBuckets);
+            ++bucketOffsets[buckets[i] + 1];
+        }
+        int maxBucketSize = 0;
+        for (int b = 0; b < numBuckets; ++b) {
+            maxBucketSize = Math.max(maxBucketSize, bucketOffsets[b + 1]);
+            bucketOffsets[b + 1] += bucketOffsets[b];
+        }
+        int[] members = new int[numStrings];
+        int[] fillCounts = Arrays.copyOf(bucketOffsets, numBuckets);
+        for (int i = 0; i < numStrings; ++i) {
+            members[fillCounts[buckets[i]]++] = i;
+        }
+        
+        // the buckets in the descending order of their sizes
+        int[] sizeOffsets = new int[maxBucketSize + 2];
+        for (int b = 0; b < numBuckets; ++b) {
+            ++sizeOffsets[maxBucketSize - (bucketOffsets[b + 1] - bucketOffsets[b]) + 1];
+        }
+        for (int s = 0; s <= maxBucketSize; ++s) {
+            sizeOffsets[s + 1] += sizeOffsets[s];
+        }
+        int[] bucketOrder = new int[numBuckets];
+        for (int b = 0; b < numBuckets; ++b) {
+            bucketOrder[sizeOffsets[maxBucketSize - (bucketOffsets[b + 1] - bucketOffsets[b])]++] = b;
+        }
+        
+        int[] ids = new int[numStrings];
+        boolean[] isTaken = new boolean[numStrings];
+        Arrays.fill(bucketSeeds, 0);
+        for (int b : bucketOrder) {
+            int start = bucketOffsets[b];
+            int end = bucketOffsets[b + 1];
+            if (start == end) {
+                break;
+            }
+            for (int seed = 0; ; ++seed) {
+                int i = start;
+                for (; i < end; ++i) {
+                    int id = getSlot(hashes[members[i]], seed, numStrings);
+                    if (isTaken[id]) {
+                        break;
+                    }
+                    isTaken[id] = true;
+                    ids[members[i]] = id;
+                }
+                if (i == end) {
+                    bucketSeeds[b] = seed;
+                    break;
+                }
+                for (int j = start; j < i; ++j) {
+                    isTaken[ids[members[j]]] = false;
+                }
+            }
+        }
+        return ids;
+    }
+}
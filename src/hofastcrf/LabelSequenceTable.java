@@ -0,0 +1,230 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.Arrays;
+
+/**
+ * The class that interns the (reversed) label sequences to integer IDs.
+ * 
+ * The label sequences form a trie: the parent of a label sequence is the one without its last element,
+ * i.e. the label farthest from the current position. Each label sequence also knows its tail,
+ * the one without its first element (the label at the current position), which is the label sequence
+ * of the preceding pattern in the lattice. The tails are interned together with the label sequences.
+ * ID 0 is the empty label sequence.
+ * 
+ * Interning is synchronized, while lookups are lock-free and safe as long as no thread is interning at the same time.
+ * @author Hiroshi Manabe
+ */
+public class LabelSequenceTable {
+    
+    public static final int EMPTY = 0;
+    
+    private final LongIntHashMap childMap = new LongIntHashMap();
+    private int[] parents;
+    private int[] farthestLabels;
+    private int[] tails;
+    private int[] lastLabels;  // the labels at the current position
+    private int[] lengths;
+    private int size;
+    
+    /**
+     * Constructor.
+     */
+    public LabelSequenceTable() {
+        parents = new int[16];
+        farthestLabels = new int[16];
+        tails = new int[16];
+        lastLabels = new int[16];
+        lengths = new int[16];
+        parents[EMPTY] = EMPTY;
+        farthestLabels[EMPTY] = -1;
+        tails[EMPTY] = EMPTY;
+        lastLabels[EMPTY] = -1;
+        lengths[EMPTY] = 0;
+        size = 1;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Returns the ID of the label sequence extended by a label farther from the current position.
+     * @param id
+     * @param label
+     * @return the ID, or -1 if the label sequence has not been interned
+     */
+    public int getChild(int id, int label) {
+        return childMap.get(FeatureIndex.packKey(id, label), -1);
+    }
+    
+    /**
+     * Returns the ID of the label sequence.
+     * @param labels reversed labels (the label at the current position first)
+     * @return the ID, or -1 if the label sequence has not been interned
+     */
+    public int lookup(int[] labels) {
+        int id = EMPTY;
+        for (int i = 0; i < labels.length && id >= 0; ++i) {
+            id = getChild(id, labels[i]);
+        }
+        return id;
+    }
+    
+    /**
+     * Returns the ID of the label sequence extended by a label farther from the current position,
+     * assigning a new one if it has not been interned yet.
+     * @param id
+     * @param label
+     * @return
+     */
+    public synchronized int intern(int id, int label) {
+        long key = FeatureIndex.packKey(id, label);
+        int child = childMap.get(key, -1);
+        if (child >= 0) {
+            return child;
+        }
+        int tail = (id == EMPTY) ? EMPTY : intern(tails[id], label);
+        if (size == parents.length) {
+            int capacity = size * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            farthestLabels = Arrays.copyOf(farthestLabels, capacity);
+            tails = Arrays.copyOf(tails, capacity);
+            lastLabels = Arrays.copyOf(lastLabels, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        child = size++;
+        parents[child] = id;
+        farthestLabels[child] = label;
+        tails[child] = tail;
+        lastLabels[child] = (id == EMPTY) ? label : lastLabels[id];
+        lengths[child] = lengths[id] + 1;
+        childMap.put(key, child);
+        return child;
+    }
+    
+    /**
+     * Returns the ID of the label sequence, assigning a new one if it has not been interned yet.
+     * @param labels reversed labels (the label at the current position first)
+     * @return
+     */
+    public int intern(int[] labels) {
+        int id = EMPTY;
+        for (int label : labels) {
+            id = intern(id, label);
+        }
+        return id;
+    }
+    
+    /**
+     * Returns the label sequence without the label farthest from the current position.
+     * @param id
+     * @return
+     */
+    public int getParent(int id) {
+        return parents[id];
+    }
+    
+    /**
+     * Returns the label farthest from the current position, or -1 for the empty label sequence.
+     * @param id
+     * @return
+     */
+    public int getFarthestLabel(int id) {
+        return farthestLabels[id];
+    }
+    
+    /**
+     * Returns the label sequence without the label at the current position.
+     * @param id
+     * @return
+     */
+    public int getTail(int id) {
+        return tails[id];
+    }
+    
+    /**
+     * Returns the label at the current position, or -1 for the empty label sequence.
+     * @param id
+     * @return
+     */
+    public int getLastLabel(int id) {
+        return lastLabels[id];
+    }
+    
+    public int getLength(int id) {
+        return lengths[id];
+    }
+    
+    /**
+     * Returns the labels of the label sequence.
+     * @param id
+     * @return reversed labels (the label at the current position first)
+     */
+    public int[] getLabels(int id) {
+        int[] labels = new int[lengths[id]];
+        for (int i = labels.length - 1; i >= 0; --i) {
+            labels[i] = farthestLabels[id];
+            id = parents[id];
+        }
+        return labels;
+    }
+    
+    /**
+     * Computes the ranks of the label sequences in the preorder traversal of the trie, visiting the children
+     * in the order of their labels. Ordering label sequences by their ranks is the same as ordering them
+     * lexicographically by their reversed labels, with a label sequence preceding its extensions.
+     * @return the ranks indexed by the IDs
+     */
+    public int[] computePreorderRanks() {
+        int size = this.size;
+        int[] childOffsets = new int[size + 1];
+        for (int id = 1; id < size; ++id) {
+            ++childOffsets[parents[id] + 1];
+        }
+        for (int id = 0; id < size; ++id) {
+            childOffsets[id + 1] += childOffsets[id];
+        }
+        long[] children = new long[size];  // (label, ID) of the children, grouped by the parents
+        int[] fillPositions = Arrays.copyOf(childOffsets, size);
+        for (int id = 1; id < size; ++id) {
+            children[fillPositions[parents[id]]++] = FeatureIndex.packKey(farthestLabels[id], id);
+        }
+        for (int id = 0; id < size; ++id) {
+            Arrays.sort(children, childOffsets[id], childOffsets[id + 1]);
+        }
+        
+        int[] ranks = new int[size];
+        int[] stack = new int[size];
+        int stackSize = 0;
+        int rank = 0;
+        stack[stackSize++] = EMPTY;
+        while (stackSize > 0) {
+            int id = stack[--stackSize];
+            ranks[id] = rank++;
+            for (int i = childOffsets[id + 1] - 1; i >= childOffsets[id]; --i) {
+                stack[stackSize++] = FeatureIndex.getLow(children[i]);
+            }
+        }
+        return ranks;
+    }
+}
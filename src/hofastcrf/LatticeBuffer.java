@@ -0,0 +1,145 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+/**
+ * Scratch score arrays for the forward-backward and the Viterbi computation over a compiled PatternSetSequence.
+ * The arrays are indexed by the pattern indices of the sequence being processed and grow on demand,
+ * so that a single buffer can be reused for many sequences by the same thread.
+ * @author Hiroshi Manabe
+ */
+public class LatticeBuffer {
+    
+    double[] expWeight;
+    double[] alpha;
+    double[] beta;
+    double[] gamma;
+    double[] delta;
+    double[] theta;
+    double[] sigma;
+    double[] bestScore;  // for decoding
+    double[] bestScoreForLabel;  // for decoding
+    int[] bestPrefixPattern;  // for decoding
+    int[] bestPrevPattern;  // for decoding
+    double bestLogScore;  // for decoding, the log score of the last inferred label sequence
+    double[] logWeight;  // for decoding with the quantized weights
+    int[] patternOrder;  // for decoding with the quantized weights, the length of the label sequence of each pattern
+    double[] beamScores;  // for decoding with a beam
+    boolean[] isInBeam;  // for decoding with a beam
+    int[] beamPatterns;  // for decoding with a beam, the patterns in the beam at each position in descending order
+    int[] beamOffsets;  // for decoding with a beam, one for each position and one more
+    int nBestSize = 0;  // for N-best decoding, the maximum number of the entries of each pattern
+    double[] nBestScores;  // for N-best decoding, nBestSize entries for each pattern
+    int[] nBestPrevPatterns;  // for N-best decoding
+    int[] nBestPrevRanks;  // for N-best decoding
+    int[] nBestCounts;  // for N-best decoding, one for each pattern
+    double[] nBestScoresForLabel;  // for N-best decoding
+    int[] nBestPrefixPatterns;  // for N-best decoding
+    int[] nBestPrefixRanks;  // for N-best decoding
+    int[] nBestCountsForLabel;  // for N-best decoding
+    double[] mergedScores;  // for N-best decoding, nBestSize entries
+    int[] mergedPatterns;  // for N-best decoding
+    int[] mergedRanks;  // for N-best decoding
+    int[] scale;  // one for each position
+    double logZ;  // the log normalization factor computed by the last calcMarginals()
+    double[] featureExpectations;  // accumulated over all the sequences processed with this buffer
+    
+    /**
+     * Constructor.
+     */
+    public LatticeBuffer() {
+        allocatePatternArrays(0);
+        scale = new int[0];
+        beamOffsets = new int[1];
+        nBestCounts = new int[0];
+        featureExpectations = new double[0];
+    }
+    
+    /**
+     * Makes sure that the buffer can hold the scores of the given numbers of patterns and positions.
+     * @param numPatterns
+     * @param length
+     */
+    void ensureCapacity(int numPatterns, int length) {
+        if (expWeight.length < numPatterns) {
+            allocatePatternArrays(Math.max(numPatterns, expWeight.length * 3 / 2));
+        }
+        if (scale.length < length) {
+            scale = new int[Math.max(length, scale.length * 3 / 2)];
+        }
+        if (beamOffsets.length < length + 1) {
+            beamOffsets = new int[Math.max(length + 1, beamOffsets.length * 3 / 2)];
+        }
+    }
+    
+    /**
+     * Makes sure that the buffer can hold the given number of the N-best entries for each pattern.
+     * The N-best arrays are allocated only when they are used, as they are several times larger than the other arrays.
+     * @param numPatterns
+     * @param n
+     */
+    void ensureNBestCapacity(int numPatterns, int n) {
+        if (nBestSize != n || nBestCounts.length < numPatterns) {
+            int capacity = Math.max(numPatterns, (nBestSize == n) ? nBestCounts.length * 3 / 2 : 0);
+            nBestSize = n;
+            nBestScores = new double[capacity * n];
+            nBestPrevPatterns = new int[capacity * n];
+            nBestPrevRanks = new int[capacity * n];
+            nBestCounts = new int[capacity];
+            nBestScoresForLabel = new double[capacity * n];
+            nBestPrefixPatterns = new int[capacity * n];
+            nBestPrefixRanks = new int[capacity * n];
+            nBestCountsForLabel = new int[capacity];
+            mergedScores = new double[n];
+            mergedPatterns = new int[n];
+            mergedRanks = new int[n];
+        }
+    }
+    
+    /**
+     * Makes sure that the buffer can accumulate the expectations of the given number of features.
+     * @param numFeatures
+     */
+    void ensureFeatureCapacity(int numFeatures) {
+        if (featureExpectations.length < numFeatures) {
+            featureExpectations = new double[numFeatures];
+        }
+    }
+    
+    private void allocatePatternArrays(int capacity) {
+        expWeight = new double[capacity];
+        alpha = new double[capacity];
+        beta = new double[capacity];
+        gamma = new double[capacity];
+        delta = new double[capacity];
+        theta = new double[capacity];
+        sigma = new double[capacity];
+        bestScore = new double[capacity];
+        bestScoreForLabel = new double[capacity];
+        bestPrefixPattern = new int[capacity];
+        bestPrevPattern = new int[capacity];
+        logWeight = new double[capacity];
+        patternOrder = new int[capacity];
+        beamScores = new double[capacity];
+        isInBeam = new boolean[capacity];
+        beamPatterns = new int[capacity];
+    }
+}
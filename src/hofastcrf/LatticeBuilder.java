@@ -0,0 +1,205 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.Arrays;
+
+/**
+ * The class that builds the lattice of a PatternSetSequence.
+ * 
+ * A pattern is identified by its position and the ID of its label sequence (see LabelSequenceTable),
+ * so the links between the patterns are found by following the trie of the label sequences
+ * without creating any label sequence objects:
+ * the previous pattern of a pattern is the one of its tail at the preceding position,
+ * and its longest suffix pattern is the one of its nearest ancestor in the trie at the same position.
+ * The patterns at a position are sorted by the preorder ranks of their label sequences in the trie,
+ * which is the lexicographic order of the reversed labels that the computation relies on.
+ * @author Hiroshi Manabe
+ */
+class LatticeBuilder {
+    
+    private final FeatureIndex featureIndex;
+    private final LabelSequenceTable labelSequenceTable;
+    private final int length;
+    private final LongIntHashMap patternMap = new LongIntHashMap();  // (position, label sequence ID) -> pattern number
+    private int[] positions = new int[16];
+    private int[] labelSequences = new int[16];
+    private int[] prevPatterns = new int[16];  // pattern numbers, -1 for the dummy pattern
+    private int numPatterns = 0;
+    private int[] featurePatterns = new int[16];  // the pattern numbers of the added features
+    private int[] features = new int[16];
+    private int numFeatureReferences = 0;
+    
+    /**
+     * Constructor. The empty patterns of all the positions are added.
+     * @param featureIndex
+     * @param length the length of the sequence
+     */
+    LatticeBuilder(FeatureIndex featureIndex, int length) {
+        this.featureIndex = featureIndex;
+        this.labelSequenceTable = featureIndex.labelSequenceTable;
+        this.length = length;
+        for (int pos = 0; pos < length; ++pos) {
+            addPattern(pos, LabelSequenceTable.EMPTY);
+        }
+    }
+    
+    private int addPattern(int pos, int labelSequence) {
+        if (numPatterns == positions.length) {
+            int capacity = numPatterns * 2;
+            positions = Arrays.copyOf(positions, capacity);
+            labelSequences = Arrays.copyOf(labelSequences, capacity);
+            prevPatterns = Arrays.copyOf(prevPatterns, capacity);
+        }
+        int pattern = numPatterns++;
+        positions[pattern] = pos;
+        labelSequences[pattern] = labelSequence;
+        prevPatterns[pattern] = -1;
+        patternMap.put(FeatureIndex.packKey(pos, labelSequence), pattern);
+        return pattern;
+    }
+    
+    /**
+     * Adds a feature at a position. If the pattern of the feature is new, the patterns of its tails
+     * at the preceding positions are added until one that already exists is found.
+     * @param pos
+     * @param feature the feature number
+     */
+    void addFeature(int pos, int feature) {
+        int labelSequence = featureIndex.featureLabelSequences[feature];
+        int pattern = patternMap.get(FeatureIndex.packKey(pos, labelSequence), -1);
+        if (pattern < 0) {
+            pattern = addPattern(pos, labelSequence);
+            int curPattern = pattern;
+            for (int prevPos = pos - 1; prevPos >= 0; --prevPos) {
+                labelSequence = labelSequenceTable.getTail(labelSequence);
+                int prevPattern = patternMap.get(FeatureIndex.packKey(prevPos, labelSequence), -1);
+                boolean exists = (prevPattern >= 0);
+                if (!exists) {
+                    prevPattern = addPattern(prevPos, labelSequence);
+                }
+                prevPatterns[curPattern] = prevPattern;
+                if (exists) {
+                    break;
+                }
+                curPattern = prevPattern;
+            }
+        }
+        if (numFeatureReferences == features.length) {
+            int capacity = numFeatureReferences * 2;
+            featurePatterns = Arrays.copyOf(featurePatterns, capacity);
+            features = Arrays.copyOf(features, capacity);
+        }
+        featurePatterns[numFeatureReferences] = pattern;
+        features[numFeatureReferences] = feature;
+        ++numFeatureReferences;
+    }
+    
+    /**
+     * Compiles the lattice.
+     * @param labels the training labels, or null if the sequence has no valid labels
+     * @param maxOrder the maximum length of the label sequences matched against the training labels
+     * @return the resulting PatternSetSequence
+     */
+    PatternSetSequence build(int[] labels, int maxOrder) {
+        int[] ranks = featureIndex.labelSequenceRanks;
+        
+        int[] patternSetOffsets = new int[length + 1];
+        for (int pattern = 0; pattern < numPatterns; ++pattern) {
+            ++patternSetOffsets[positions[pattern] + 1];
+        }
+        patternSetOffsets[0] = PatternSetSequence.DUMMY_PATTERN_INDEX + 1;
+        for (int pos = 0; pos < length; ++pos) {
+            patternSetOffsets[pos + 1] += patternSetOffsets[pos];
+        }
+        long[] sortKeys = new long[numPatterns + 1];
+        int[] fillPositions = Arrays.copyOf(patternSetOffsets, length);
+        for (int pattern = 0; pattern < numPatterns; ++pattern) {
+            sortKeys[fillPositions[positions[pattern]]++] = FeatureIndex.packKey(ranks[labelSequences[pattern]], pattern);
+        }
+        int[] indices = new int[numPatterns];
+        for (int pos = 0; pos < length; ++pos) {
+            Arrays.sort(sortKeys, patternSetOffsets[pos], patternSetOffsets[pos + 1]);
+            for (int i = patternSetOffsets[pos]; i < patternSetOffsets[pos + 1]; ++i) {
+                indices[FeatureIndex.getLow(sortKeys[i])] = i;
+            }
+        }
+        
+        int size = numPatterns + 1;
+        int[] prevPatternIndices = new int[size];
+        int[] longestSuffixPatterns = new int[size];
+        int[] lastLabels = new int[size];
+        int[] featureOffsets = new int[size + 1];
+        lastLabels[PatternSetSequence.DUMMY_PATTERN_INDEX] = -1;
+        for (int pattern = 0; pattern < numPatterns; ++pattern) {
+            int index = indices[pattern];
+            int pos = positions[pattern];
+            int labelSequence = labelSequences[pattern];
+            prevPatternIndices[index] = (prevPatterns[pattern] < 0) ? PatternSetSequence.DUMMY_PATTERN_INDEX : indices[prevPatterns[pattern]];
+            lastLabels[index] = labelSequenceTable.getLastLabel(labelSequence);
+            if (labelSequence == LabelSequenceTable.EMPTY) {
+                longestSuffixPatterns[index] = PatternSetSequence.DUMMY_PATTERN_INDEX;
+            } else {
+                int suffixPattern;
+                do {
+                    labelSequence = labelSequenceTable.getParent(labelSequence);
+                    suffixPattern = patternMap.get(FeatureIndex.packKey(pos, labelSequence), -1);
+                } while (suffixPattern < 0);
+                longestSuffixPatterns[index] = indices[suffixPattern];
+            }
+        }
+        
+        for (int i = 0; i < numFeatureReferences; ++i) {
+            ++featureOffsets[indices[featurePatterns[i]] + 1];
+        }
+        for (int i = 0; i < size; ++i) {
+            featureOffsets[i + 1] += featureOffsets[i];
+        }
+        int[] compiledFeatures = new int[numFeatureReferences];
+        int[] fillCounts = Arrays.copyOf(featureOffsets, size);
+        for (int i = 0; i < numFeatureReferences; ++i) {
+            compiledFeatures[fillCounts[indices[featurePatterns[i]]]++] = features[i];
+        }
+        
+        int[] longestMatchPatterns = new int[length];
+        for (int pos = 0; pos < length; ++pos) {
+            int longestMatchPattern = patternMap.get(FeatureIndex.packKey(pos, LabelSequenceTable.EMPTY), -1);
+            if (labels != null) {
+                int labelSequence = LabelSequenceTable.EMPTY;
+                int maxLength = Math.min(maxOrder, pos + 1);
+                for (int i = 0; i < maxLength; ++i) {
+                    labelSequence = labelSequenceTable.getChild(labelSequence, labels[pos - i]);
+                    if (labelSequence < 0) {
+                        break;
+                    }
+                    int pattern = patternMap.get(FeatureIndex.packKey(pos, labelSequence), -1);
+                    if (pattern >= 0) {
+                        longestMatchPattern = pattern;
+                    }
+                }
+            }
+            longestMatchPatterns[pos] = indices[longestMatchPattern];
+        }
+        
+        return new PatternSetSequence(patternSetOffsets, prevPatternIndices, longestSuffixPatterns, lastLabels,
+                featureOffsets, compiledFeatures, longestMatchPatterns);
+    }
+}
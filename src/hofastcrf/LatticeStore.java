@@ -0,0 +1,222 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import parallel.WorkerPool;
+
+/**
+ * A list of PatternSetSequence kept in a file instead of on the heap.
+ * 
+ * The compiled lattices are written once, one record per sequence, and mapped back into memory in segments.
+ * get() decodes a fresh PatternSetSequence from the mapping, which becomes garbage as soon as the caller
+ * is done with it, so only the lattices being computed are on the heap at a time.
+ * A record never crosses a segment boundary. When the first sequence of a segment is requested,
+ * the next segment is loaded in the background so that the sequential passes of the optimizer
+ * do not wait for the disk.
+ * 
+ * A record consists of the following ints:
+ * <pre>
+ * length, numPatterns, numFeatureReferences,
+ * patternSetOffsets[length + 1], prevPatterns[numPatterns], longestSuffixPatterns[numPatterns],
+ * lastLabels[numPatterns], featureOffsets[numPatterns + 1], features[numFeatureReferences],
+ * longestMatchPatterns[length]
+ * </pre>
+ * @author Hiroshi Manabe
+ */
+public class LatticeStore extends AbstractList<PatternSetSequence> implements Closeable {
+    
+    static final int SEGMENT_SIZE = 64 << 20;
+    static final int BATCH_SIZE = 256;  // the number of the lattices generated in parallel before being written
+    static final int HEADER_INTS = 3;
+    
+    private final File file;
+    private MappedByteBuffer[] segments;  // null after close()
+    private final int[] recordSegments;
+    private final int[] recordOffsets;
+    private final boolean[] segmentStarts;
+    private final ExecutorService prefetcher;
+    
+    private LatticeStore(File file, MappedByteBuffer[] segments, int[] recordSegments, int[] recordOffsets) {
+        this.file = file;
+        this.segments = segments;
+        this.recordSegments = recordSegments;
+        this.recordOffsets = recordOffsets;
+        this.segmentStarts = new boolean[recordSegments.length];
+        for (int i = 0; i < recordSegments.length; ++i) {
+            segmentStarts[i] = (i == 0 || recordSegments[i] != recordSegments[i - 1]);
+        }
+        this.prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lattice-prefetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Generates the PatternSetSequence of every sequence in the data set and writes them to the file.
+     * The lattices are generated in parallel in batches and written as soon as each batch is finished,
+     * so they are never all on the heap.
+     * @param file the file to write, which is deleted when the store is closed (see close())
+     * @param dataSet
+     * @param featureIndex
+     * @param pool the worker pool to run the generation
+     * @return the store that reads the written lattices
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static LatticeStore create(File file, DataSet dataSet, FeatureIndex featureIndex, WorkerPool pool)
+            throws IOException, InterruptedException {
+        int numSequences = dataSet.dataSequenceList.size();
+        int[] recordSegments = new int[numSequences];
+        int[] recordOffsets = new int[numSequences];
+        List<Long> segmentPositions = new ArrayList<Long>();
+        List<Integer> segmentSizes = new ArrayList<Integer>();
+        
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long position = 0;
+            int segmentSize = SEGMENT_SIZE;
+            PatternSetSequence[] batch = null;
+            for (int i = 0; i < numSequences; ++i) {
+                if (i % BATCH_SIZE == 0) {
+                    batch = dataSet.generatePatternSetSequences(featureIndex, i, Math.min(i + BATCH_SIZE, numSequences), pool);
+                }
+                ByteBuffer record = encode(batch[i % BATCH_SIZE]);
+                batch[i % BATCH_SIZE] = null;
+                int recordSize = record.remaining();
+                if (recordSize > SEGMENT_SIZE) {
+                    throw new IOException("The lattice of the sequence " + i + " is too large: " + recordSize + " bytes");
+                }
+                if (segmentSize + recordSize > SEGMENT_SIZE) {
+                    segmentPositions.add(position);
+                    segmentSizes.add(0);
+                    segmentSize = 0;
+                }
+                recordSegments[i] = segmentPositions.size() - 1;
+                recordOffsets[i] = segmentSize;
+                while (record.hasRemaining()) {
+                    position += channel.write(record);
+                }
+                segmentSize += recordSize;
+                segmentSizes.set(segmentSizes.size() - 1, segmentSize);
+            }
+            
+            MappedByteBuffer[] segments = new MappedByteBuffer[segmentPositions.size()];
+            for (int i = 0; i < segments.length; ++i) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, segmentPositions.get(i), segmentSizes.get(i));
+            }
+            return new LatticeStore(file, segments, recordSegments, recordOffsets);
+        } finally {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Encodes a PatternSetSequence into a record.
+     * @param seq
+     * @return the buffer ready to be written
+     */
+    static ByteBuffer encode(PatternSetSequence seq) {
+        int numInts = HEADER_INTS + seq.patternSetOffsets.length + seq.prevPatterns.length + seq.longestSuffixPatterns.length
+                + seq.lastLabels.length + seq.featureOffsets.length + seq.features.length + seq.longestMatchPatterns.length;
+        ByteBuffer buffer = ByteBuffer.allocate(numInts * 4);
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.put(seq.length());
+        ints.put(seq.getNumPatterns());
+        ints.put(seq.features.length);
+        ints.put(seq.patternSetOffsets);
+        ints.put(seq.prevPatterns);
+        ints.put(seq.longestSuffixPatterns);
+        ints.put(seq.lastLabels);
+        ints.put(seq.featureOffsets);
+        ints.put(seq.features);
+        ints.put(seq.longestMatchPatterns);
+        return buffer;
+    }
+    
+    /**
+     * Decodes the record of a sequence.
+     * @param index the index of the sequence
+     * @return a newly created PatternSetSequence
+     */
+    @Override
+    public PatternSetSequence get(int index) {
+        int segment = recordSegments[index];
+        if (segmentStarts[index] && segments.length > 1) {
+            prefetch((segment + 1) % segments.length);
+        }
+        ByteBuffer buffer = segments[segment].duplicate();
+        buffer.position(recordOffsets[index]);
+        IntBuffer ints = buffer.asIntBuffer();
+        int length = ints.get();
+        int numPatterns = ints.get();
+        int numFeatureReferences = ints.get();
+        return new PatternSetSequence(readInts(ints, length + 1), readInts(ints, numPatterns), readInts(ints, numPatterns),
+                readInts(ints, numPatterns), readInts(ints, numPatterns + 1), readInts(ints, numFeatureReferences),
+                readInts(ints, length));
+    }
+    
+    private static int[] readInts(IntBuffer ints, int length) {
+        int[] ret = new int[length];
+        ints.get(ret);
+        return ret;
+    }
+    
+    private void prefetch(int segment) {
+        final MappedByteBuffer buffer = segments[segment];
+        prefetcher.execute(() -> buffer.load());
+    }
+    
+    @Override
+    public int size() {
+        return recordSegments.length;
+    }
+    
+    /**
+     * Stops the background loading, drops the mappings and deletes the file. The store cannot be used after this.
+     * Java cannot unmap a file explicitly, so the mappings are released by the garbage collector,
+     * and the disk space of the file may be kept until then. On the systems that do not allow
+     * a mapped file to be deleted, the file is deleted when the JVM exits instead.
+     */
+    @Override
+    public void close() {
+        prefetcher.shutdownNow();
+        segments = null;
+        if (!file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+}
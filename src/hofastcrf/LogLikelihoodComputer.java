@@ -20,6 +20,8 @@ along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
 
 package hofastcrf;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import parallel.Schedulable;
@@ -33,17 +35,66 @@ public class LogLikelihoodComputer implements Schedulable {
     int curID;
     List<PatternSetSequence> patternSetSequence;
     LogLikelihood logLikelihood;
+    double[] featureExpWeights;
+    int numFeatures;
+    List<LatticeBuffer> latticeBufferList = new ArrayList<LatticeBuffer>();
+    ThreadLocal<LatticeBuffer> latticeBuffer = ThreadLocal.withInitial(this::createLatticeBuffer);
     
-    public LogLikelihoodComputer(List<PatternSetSequence> patternSetSequence, LogLikelihood logLikelihood) {
+    /**
+     * Constructor.
+     * The computer is meant to be reused for all the evaluations, so that the per-thread buffers survive
+     * as long as the threads of the worker pool do.
+     * @param patternSetSequence
+     * @param featureExpWeights the exponentiated feature weights, which are updated by the caller before each evaluation
+     */
+    public LogLikelihoodComputer(List<PatternSetSequence> patternSetSequence, double[] featureExpWeights) {
         curID = -1;
         this.patternSetSequence = patternSetSequence;
+        this.featureExpWeights = featureExpWeights;
+        this.numFeatures = featureExpWeights.length;
+    }
+    
+    /**
+     * Prepares a new evaluation whose log likelihood is added to the argument.
+     * @param logLikelihood
+     */
+    synchronized void reset(LogLikelihood logLikelihood) {
+        curID = -1;
         this.logLikelihood = logLikelihood;
     }
+    
+    /**
+     * Creates a buffer for the current thread and registers it so that its expectations can be merged later.
+     * @return
+     */
+    synchronized LatticeBuffer createLatticeBuffer() {
+        LatticeBuffer buffer = new LatticeBuffer();
+        buffer.ensureFeatureCapacity(numFeatures);
+        latticeBufferList.add(buffer);
+        return buffer;
+    }
+    
+    /**
+     * Adds the feature expectations accumulated by all the threads to the given array
+     * and clears them for the next evaluation.
+     * This must be called after all the tasks are finished.
+     * @param expectations
+     */
+    synchronized void mergeFeatureExpectations(double[] expectations) {
+        for (LatticeBuffer buffer : latticeBufferList) {
+            double[] featureExpectations = buffer.featureExpectations;
+            for (int i = 0; i < numFeatures; ++i) {
+                expectations[i] += featureExpectations[i];
+            }
+            Arrays.fill(featureExpectations, 0, numFeatures, 0.0);
+        }
+    }
 
     public Object compute(int taskID) {
         PatternSetSequence seq = patternSetSequence.get(taskID);
-        seq.accumulateFeatureExpectation();
-        double ll = seq.calcLogLikelihood();
+        LatticeBuffer buffer = latticeBuffer.get();
+        seq.accumulateFeatureExpectation(featureExpWeights, buffer);
+        double ll = seq.calcLogLikelihood(buffer);
         return new LogLikelihood(ll);
     }
     
@@ -0,0 +1,186 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+/**
+ * An open-addressing hash map from primitive long keys to primitive int values.
+ * It is used for the packed feature keys and feature template keys so that they are neither boxed nor rehashed as objects.
+ * Concurrent reads are safe as long as no thread modifies the map.
+ * @author Hiroshi Manabe
+ */
+public class LongIntHashMap {
+    
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+    
+    /**
+     * Constructor.
+     */
+    public LongIntHashMap() {
+        this(16);
+    }
+    
+    /**
+     * Constructor.
+     * @param expectedSize the number of the entries that can be put without resizing
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+    
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+    
+    /**
+     * Returns the slot of the key, which is either the slot holding the key or the empty slot where it should be put.
+     * @param key
+     * @return
+     */
+    private int findSlot(long key) {
+        int slot = hash(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean containsKey(long key) {
+        return used[findSlot(key)];
+    }
+    
+    /**
+     * Returns the value associated with the key.
+     * @param key
+     * @param defaultValue the value returned when the key is absent
+     * @return
+     */
+    public int get(long key, int defaultValue) {
+        int slot = findSlot(key);
+        return used[slot] ? values[slot] : defaultValue;
+    }
+    
+    /**
+     * Associates the value with the key.
+     * @param key
+     * @param value
+     */
+    public void put(long key, int value) {
+        int slot = findSlot(key);
+        if (!used[slot]) {
+            used[slot] = true;
+            keys[slot] = key;
+            ++size;
+            if (size * 2 > keys.length) {
+                values[slot] = value;
+                rehash();
+                return;
+            }
+        }
+        values[slot] = value;
+    }
+    
+    /**
+     * Adds the delta to the value associated with the key, regarding an absent value as 0.
+     * @param key
+     * @param delta
+     */
+    public void addTo(long key, int delta) {
+        int slot = findSlot(key);
+        if (used[slot]) {
+            values[slot] += delta;
+        } else {
+            put(key, delta);
+        }
+    }
+    
+    /**
+     * Adds the values of another map to the values of this map.
+     * @param other
+     */
+    public void addAll(LongIntHashMap other) {
+        for (int slot = 0; slot < other.keys.length; ++slot) {
+            if (other.used[slot]) {
+                addTo(other.keys[slot], other.values[slot]);
+            }
+        }
+    }
+    
+    /**
+     * Returns all the keys in the internal order of the map.
+     * @return
+     */
+    public long[] keys() {
+        long[] ret = new long[size];
+        int count = 0;
+        for (int slot = 0; slot < keys.length; ++slot) {
+            if (used[slot]) {
+                ret[count++] = keys[slot];
+            }
+        }
+        return ret;
+    }
+    
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(oldKeys.length * 2);
+        for (int slot = 0; slot < oldKeys.length; ++slot) {
+            if (oldUsed[slot]) {
+                int newSlot = findSlot(oldKeys[slot]);
+                used[newSlot] = true;
+                keys[newSlot] = oldKeys[slot];
+                values[newSlot] = oldValues[slot];
+                ++size;
+            }
+        }
+    }
+    
+    /**
+     * Scrambles the bits of the key (the finalizer of MurmurHash3).
+     * @param key
+     * @return
+     */
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+/**
+ * The n best label sequences of an observation sequence and their conditional probabilities.
+ * @author Hiroshi Manabe
+ */
+public class NBestResult {
+    
+    final String[][] labels;
+    final double[] logProbabilities;
+    
+    /**
+     * Constructor.
+     * @param labels the label sequences in the descending order of the probabilities
+     * @param logProbabilities the log conditional probabilities of the label sequences
+     */
+    NBestResult(String[][] labels, double[] logProbabilities) {
+        this.labels = labels;
+        this.logProbabilities = logProbabilities;
+    }
+    
+    /**
+     * Returns the number of the label sequences, which can be less than the requested number for a short sequence.
+     * @return
+     */
+    public int size() {
+        return labels.length;
+    }
+    
+    /**
+     * Returns the k-th best label sequence.
+     * @param k 0 for the best one
+     * @return
+     */
+    public String[] getLabels(int k) {
+        return labels[k];
+    }
+    
+    /**
+     * Returns the conditional probability of the k-th best label sequence given the observations.
+     * @param k 0 for the best one
+     * @return
+     */
+    public double getProbability(int k) {
+        return Math.exp(logProbabilities[k]);
+    }
+    
+    /**
+     * Returns the log conditional probability of the k-th best label sequence given the observations.
+     * @param k 0 for the best one
+     * @return
+     */
+    public double getLogProbability(int k) {
+        return logProbabilities[k];
+    }
+}
@@ -20,7 +20,7 @@ along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
 
 package hofastcrf;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -56,19 +56,32 @@ public class ObservationSequence<T> {
     }
     
     /**
-     * Generates the processed data sequence (which is a list of lists of feature templates) from the feature template generator.
+     * Generates the processed data sequence (which holds the keys of the feature templates for each position) from the feature template generator.
      * @param featureTemplateGenerator
      * @param labelMap
      * @param maxLabelLength the maximum label length of the features.
+     * @param observationTable the table to convert the observations of the feature templates to IDs
+     * @param internsObservations true if unknown observations are added to the table, false if they are dropped
      * @return
      */
-    public DataSequence generateDataSequence(FeatureTemplateGenerator<T> featureTemplateGenerator, Map<String, Integer> labelMap, int maxLabelLength) {
-        List<List<FeatureTemplate>> featureTemplateListList = new ArrayList<List<FeatureTemplate>>();
+    public DataSequence generateDataSequence(FeatureTemplateGenerator<T> featureTemplateGenerator, Map<String, Integer> labelMap, int maxLabelLength,
+            SymbolTable observationTable, boolean internsObservations) {
+        long[][] templateKeys = new long[observationList.size()][];
         int[] labels = new int[observationList.size()];
         for (int pos = 0; pos < observationList.size(); ++pos) {
-            featureTemplateListList.add(featureTemplateGenerator.generateFeatureTemplatesAt(observationList, pos));
+            List<FeatureTemplate> templateList = featureTemplateGenerator.generateFeatureTemplatesAt(observationList, pos);
+            long[] keys = new long[templateList.size()];
+            int count = 0;
+            for (FeatureTemplate template : templateList) {
+                int observation = internsObservations ? observationTable.intern(template.getObservation()) :
+                    observationTable.lookup(template.getObservation());
+                if (observation >= 0) {
+                    keys[count++] = FeatureIndex.packKey(observation, template.getOrder());
+                }
+            }
+            templateKeys[pos] = (count == keys.length) ? keys : Arrays.copyOf(keys, count);
             labels[pos] = hasValidLabels ? labelMap.get(labelList.get(pos)) : 0;
         }
-        return new DataSequence(featureTemplateListList, labels, maxLabelLength, hasValidLabels);
+        return new DataSequence(templateKeys, labels, maxLabelLength, hasValidLabels);
     }
 }
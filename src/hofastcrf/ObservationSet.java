@@ -20,11 +20,13 @@ along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
 
 package hofastcrf;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import parallel.Scheduler;
+import parallel.WorkerPool;
+
 /**
  * A class that represents a observation set (list of observation sequences).
  * @author Hiroshi Manabe
@@ -47,7 +49,17 @@ public class ObservationSet<T> {
      * @return
      */
     public Map<String, Integer> generateLabelMap() {
-        Map<String, Integer> labelMap = new HashMap<String, Integer>();
+        return generateLabelMap(new HashMap<String, Integer>());
+    }
+    
+    /**
+     * Generates the map that extends an existing label map with the new labels of the observations,
+     * keeping the integer representations of the existing labels.
+     * @param baseLabelMap
+     * @return
+     */
+    public Map<String, Integer> generateLabelMap(Map<String, Integer> baseLabelMap) {
+        Map<String, Integer> labelMap = new HashMap<String, Integer>(baseLabelMap);
         for (ObservationSequence<T> seq : observationSequenceList) {
             List<String> labelList = seq.getLabelList();
             for (String label : labelList) {
@@ -61,16 +73,21 @@ public class ObservationSet<T> {
     
     /**
      * Generates the processed data set using the feature template generator.
+     * The sequences are processed in parallel (see DataSequenceGenerator),
+     * while the IDs of the observations do not depend on the number of the threads.
      * @param featureTemplateGenerator
      * @param labelMap
      * @param maxOrder
+     * @param observationTable the table to which the observations of the feature templates are added
+     * @param pool the worker pool to run the generation
      * @return
+     * @throws InterruptedException
      */
-    public DataSet generateDataSet(FeatureTemplateGenerator<T> featureTemplateGenerator, Map<String, Integer> labelMap, int maxOrder) {
-        List<DataSequence> dataSequenceList = new ArrayList<DataSequence>();
-        for (ObservationSequence<T> observationSequence : observationSequenceList) {
-            dataSequenceList.add(observationSequence.generateDataSequence(featureTemplateGenerator, labelMap, maxOrder));
-        }
-        return new DataSet(dataSequenceList);
+    public DataSet generateDataSet(FeatureTemplateGenerator<T> featureTemplateGenerator, Map<String, Integer> labelMap, int maxOrder,
+            SymbolTable observationTable, WorkerPool pool) throws InterruptedException {
+        DataSequenceGenerator<T> generator = new DataSequenceGenerator<T>(observationSequenceList, featureTemplateGenerator, labelMap, maxOrder);
+        Scheduler sch = new Scheduler(generator, pool, Scheduler.DYNAMIC_NEXT_AVAILABLE);
+        sch.run();
+        return generator.createDataSet(observationTable);
     }
 }
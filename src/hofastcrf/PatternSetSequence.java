@@ -20,85 +20,365 @@ along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
 
 package hofastcrf;
 
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
  * A class that represents the sequence of the pattern sets converted from a data sequence.
+ * 
+ * The lattice is stored in a compiled form: every pattern has an index and the links between the patterns
+ * are kept in flat int arrays. The patterns at a position occupy a contiguous range of indices, starting with
+ * the empty pattern and followed by the other patterns in the order of their label sequences.
+ * Index 0 is reserved for the dummy pattern preceding the first position.
+ * The scores are not kept here but in a LatticeBuffer, which is passed to the computation methods.
  * @author Hiroshi Manabe
   */
 public class PatternSetSequence {
     
-    List<PatternSet> patternSetList;
-    Pattern dummyPattern;
+    static final int DUMMY_PATTERN_INDEX = 0;
+    
+    final int[] patternSetOffsets;  // the patterns at the position pos are in [patternSetOffsets[pos], patternSetOffsets[pos + 1])
+    final int[] prevPatterns;
+    final int[] longestSuffixPatterns;
+    final int[] lastLabels;  // the label at the position of the pattern, -1 for the empty patterns
+    final int[] featureOffsets;  // the features of the pattern i are in [featureOffsets[i], featureOffsets[i + 1])
+    final int[] features;  // the feature numbers (see FeatureIndex)
+    final int[] longestMatchPatterns;  // the patterns that match the training label sequence with the longest length
     Map<Integer, String> reversedLabelMapForDebugging = null;
     
     /**
      * Constructor.
-     * @param patternSetList
+     * @param patternSetOffsets
+     * @param prevPatterns
+     * @param longestSuffixPatterns
+     * @param lastLabels
+     * @param featureOffsets
+     * @param features
+     * @param longestMatchPatterns
+     */
+    PatternSetSequence(int[] patternSetOffsets, int[] prevPatterns, int[] longestSuffixPatterns, int[] lastLabels,
+            int[] featureOffsets, int[] features, int[] longestMatchPatterns) {
+        this.patternSetOffsets = patternSetOffsets;
+        this.prevPatterns = prevPatterns;
+        this.longestSuffixPatterns = longestSuffixPatterns;
+        this.lastLabels = lastLabels;
+        this.featureOffsets = featureOffsets;
+        this.features = features;
+        this.longestMatchPatterns = longestMatchPatterns;
+    }
+    
+    /**
+     * Returns the length of the sequence.
+     * @return length
+     */
+    int length() {
+        return longestMatchPatterns.length;
+    }
+    
+    /**
+     * Returns the number of the patterns including the dummy pattern.
+     * @return
+     */
+    int getNumPatterns() {
+        return prevPatterns.length;
+    }
+    
+    /**
+     * Executes the forward backward algorithm and accumulates the feature expectations to the buffer.
+     * @param featureExpWeights the exponentiated weights of the features
+     * @param buffer the buffer whose feature expectation array covers all the features of this sequence
+     */
+    void accumulateFeatureExpectation(double[] featureExpWeights, LatticeBuffer buffer) {
+        calcForwardBackward(featureExpWeights, buffer);
+        for (int pos = 0; pos < length(); ++pos) {
+            addFeatureExpectations(pos, buffer);
+        }
+    }
+    
+    /**
+     * Executes the forward backward algorithm, leaving the scores in the buffer.
+     * @param featureExpWeights the exponentiated weights of the features
+     * @param buffer
+     */
+    void calcForwardBackward(double[] featureExpWeights, LatticeBuffer buffer) {
+        initializeScores(buffer);
+        for (int pos = 0; pos < length(); ++pos) {
+            setPatternWeights(pos, featureExpWeights, buffer);
+            calcAlpha(pos, buffer);
+            calcGamma(pos, buffer);
+        }
+        setLastDelta(buffer);
+        for (int pos = length() - 1; pos >= 0; --pos) {
+            calcBeta(pos, buffer);
+            calcDeltaAndOthers(pos, buffer);
+        }
+    }
+    
+    /**
+     * Calculates the marginal probabilities of the labels at each position.
+     * The sum expectation of a pattern of length 1 is the mass of all the label sequences having its label at the position.
+     * The log normalization factor is also set to the buffer.
+     * @param featureExpWeights the exponentiated weights of the features
+     * @param buffer
+     * @param numLabels
+     * @return the marginal probabilities indexed by the positions and the labels
+     */
+    double[][] calcMarginals(double[] featureExpWeights, LatticeBuffer buffer, int numLabels) {
+        calcForwardBackward(featureExpWeights, buffer);
+        buffer.logZ = Math.log(getZSignificand(buffer)) + Math.log(2.0) * getZExponent(buffer);
+        double[] sigma = buffer.sigma;
+        double[][] ret = new double[length()][numLabels];
+        for (int pos = 0; pos < length(); ++pos) {
+            int emptyPattern = patternSetOffsets[pos];
+            double Z = getZ(pos, buffer);
+            for (int i = emptyPattern + 1; i < patternSetOffsets[pos + 1]; ++i) {
+                if (longestSuffixPatterns[i] == emptyPattern) {
+                    ret[pos][lastLabels[i]] = sigma[i] / Z;
+                }
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Adds the counts of the features on the training labels to the feature expectations of the buffer.
+     * After accumulateFeatureExpectation(), the buffer then holds the gradient of the log likelihood of this sequence.
+     * @param buffer
+     */
+    void addEmpiricalFeatureCounts(LatticeBuffer buffer) {
+        double[] featureExpectations = buffer.featureExpectations;
+        for (int pos = 0; pos < length(); ++pos) {
+            for (int i = longestMatchPatterns[pos]; i != patternSetOffsets[pos]; i = longestSuffixPatterns[i]) {
+                for (int j = featureOffsets[i]; j < featureOffsets[i + 1]; ++j) {
+                    featureExpectations[features[j]] += 1.0;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Initializes the scores (both for training and for decoding).
+     * @param buffer
      */
-    PatternSetSequence(List<PatternSet> patternSetList) {
-        this.patternSetList = patternSetList;
-        this.dummyPattern = new Pattern(LabelSequence.createEmptyLabelSequence());
-        dummyPattern.gamma = 1.0;
-        patternSetList.get(0).setPrevPattern(dummyPattern);
+    void initializeScores(LatticeBuffer buffer) {
+        int numPatterns = getNumPatterns();
+        buffer.ensureCapacity(numPatterns, length());
+        Arrays.fill(buffer.alpha, 0, numPatterns, 0.0);
+        Arrays.fill(buffer.beta, 0, numPatterns, 0.0);
+        Arrays.fill(buffer.gamma, 0, numPatterns, 0.0);
+        Arrays.fill(buffer.delta, 0, numPatterns, 0.0);
+        Arrays.fill(buffer.theta, 0, numPatterns, 0.0);
+        Arrays.fill(buffer.sigma, 0, numPatterns, 0.0);
+        Arrays.fill(buffer.bestScore, 0, numPatterns, 0.0);
+        Arrays.fill(buffer.bestScoreForLabel, 0, numPatterns, 0.0);
+        Arrays.fill(buffer.bestPrefixPattern, 0, numPatterns, DUMMY_PATTERN_INDEX);
+        Arrays.fill(buffer.expWeight, 0, numPatterns, 1.0);
+        Arrays.fill(buffer.scale, 0, length(), 0);
+        buffer.gamma[DUMMY_PATTERN_INDEX] = 1.0;
     }
     
     /**
-     * Executes the forward backward algorithm and accumulates the feature expectations.
+     * Sets the weights for the patterns at the position by accumulating the feature weights.
+     * The weight of a pattern is the product of the weight of its longest suffix pattern and those of its own features,
+     * multiplied in a local variable so that the JIT compiler can keep it in a register.
+     * @param pos
+     * @param featureExpWeights the exponentiated weights of the features
+     * @param buffer
      */
-    void accumulateFeatureExpectation() {
-        for (PatternSet patternSet : patternSetList) {
-            patternSet.initializeScores();
-            patternSet.setPatternWeights();
-            patternSet.calcAlpha();
-            patternSet.calcGamma();
+    void setPatternWeights(int pos, double[] featureExpWeights, LatticeBuffer buffer) {
+        double[] expWeight = buffer.expWeight;
+        for (int i = patternSetOffsets[pos] + 1; i < patternSetOffsets[pos + 1]; ++i) {
+            double weight = expWeight[longestSuffixPatterns[i]];
+            for (int j = featureOffsets[i]; j < featureOffsets[i + 1]; ++j) {
+                weight *= featureExpWeights[features[j]];
+            }
+            expWeight[i] = weight;
         }
-        patternSetList.get(patternSetList.size() - 1).setLastDelta();
-        for (int i = patternSetList.size() - 1; i >= 0; --i) {
-            PatternSet patternSet = patternSetList.get(i);
-            patternSet.calcBeta();
-            patternSet.calcDeltaAndOthers();
+    }
+    
+    /**
+     * Calculates forward difference scores.
+     * @param pos
+     * @param buffer
+     */
+    void calcAlpha(int pos, LatticeBuffer buffer) {
+        double[] alpha = buffer.alpha;
+        double[] gamma = buffer.gamma;
+        double[] expWeight = buffer.expWeight;
+        for (int i = patternSetOffsets[pos + 1] - 1; i > patternSetOffsets[pos]; --i) {
+            alpha[i] += gamma[prevPatterns[i]] * expWeight[i];
+            alpha[longestSuffixPatterns[i]] -= gamma[prevPatterns[i]] * expWeight[longestSuffixPatterns[i]];
         }
-        for (PatternSet patternSet : patternSetList) {
-            patternSet.addFeatureExpectations();
+        scaleAlpha(pos, buffer);
+    }
+    
+    /**
+     * Calculates forward sum scores.
+     * @param pos
+     * @param buffer
+     */
+    void calcGamma(int pos, LatticeBuffer buffer) {
+        double[] alpha = buffer.alpha;
+        double[] gamma = buffer.gamma;
+        for (int i = patternSetOffsets[pos + 1] - 1; i > patternSetOffsets[pos]; --i) {
+            gamma[i] += alpha[i];
+            gamma[longestSuffixPatterns[i]] += gamma[i];
         }
     }
     
+    /**
+     * Sets the delta (backward difference score) for the empty pattern at the last position.
+     * @param buffer
+     */
+    void setLastDelta(LatticeBuffer buffer) {
+        buffer.delta[patternSetOffsets[length() - 1]] = 1.0;
+    }
+    
+    /**
+     * Calculates backward sum scores.
+     * @param pos
+     * @param buffer
+     */
+    void calcBeta(int pos, LatticeBuffer buffer) {
+        double[] beta = buffer.beta;
+        double[] delta = buffer.delta;
+        int emptyPattern = patternSetOffsets[pos];
+        beta[emptyPattern] = delta[emptyPattern];
+        for (int i = emptyPattern + 1; i < patternSetOffsets[pos + 1]; ++i) {
+            beta[i] = delta[i] + beta[longestSuffixPatterns[i]];
+        }
+        beta[emptyPattern] = 0.0;
+        scaleBeta(pos, buffer);
+    }
+    
+    /**
+     * Calculates backward difference scores, pattern difference expectations, pattern sum expectations.
+     * @param pos
+     * @param buffer
+     */
+    void calcDeltaAndOthers(int pos, LatticeBuffer buffer) {
+        double[] alpha = buffer.alpha;
+        double[] beta = buffer.beta;
+        double[] delta = buffer.delta;
+        double[] theta = buffer.theta;
+        double[] sigma = buffer.sigma;
+        double[] expWeight = buffer.expWeight;
+        for (int i = patternSetOffsets[pos] + 1; i < patternSetOffsets[pos + 1]; ++i) {
+            // delta (backward difference score)
+            delta[prevPatterns[i]] += beta[i] * expWeight[i] - beta[longestSuffixPatterns[i]] * expWeight[longestSuffixPatterns[i]];
+            // theta (difference expectation)
+            theta[i] = beta[i] * alpha[i];
+        }
+        for (int i = patternSetOffsets[pos + 1] - 1; i > patternSetOffsets[pos]; --i) {
+            // sigma (sum expectation)
+            sigma[i] += theta[i];
+            sigma[longestSuffixPatterns[i]] += sigma[i];
+        }
+    }
+    
+    /**
+     * Scales the forward scores in order not to over/underflow
+     * @param pos
+     * @param buffer
+     */
+    void scaleAlpha(int pos, LatticeBuffer buffer) {
+        double[] alpha = buffer.alpha;
+        double maxAlpha = 0;
+        for (int i = patternSetOffsets[pos]; i < patternSetOffsets[pos + 1]; ++i) {
+            if (alpha[i] > maxAlpha) {
+                maxAlpha = alpha[i];
+            }
+        }
+        int maxAlphaExponent = (int)((Double.doubleToLongBits(maxAlpha) & 0x7ff0000000000000L) >> 52) - 1023;
+        double expScale = Math.pow(2.0, -maxAlphaExponent);
+        for (int i = patternSetOffsets[pos]; i < patternSetOffsets[pos + 1]; ++i) {
+            alpha[i] *= expScale;
+        }
+        buffer.scale[pos] += maxAlphaExponent;
+    }
+    
+    /**
+     * Scales the backward scores in order not to over/underflow (reusing the forward scale factors).
+     * @param pos
+     * @param buffer
+     */
+    void scaleBeta(int pos, LatticeBuffer buffer) {
+        double[] beta = buffer.beta;
+        double expScale = Math.pow(2.0, buffer.scale[pos]);
+        for (int i = patternSetOffsets[pos]; i < patternSetOffsets[pos + 1]; ++i) {
+            beta[i] /= expScale;
+        }
+    }
+    
+    /**
+     * Accumulates the expectations of the features associated with the patterns at the position.
+     * @param pos
+     * @param buffer
+     */
+    void addFeatureExpectations(int pos, LatticeBuffer buffer) {
+        double[] sigma = buffer.sigma;
+        double[] featureExpectations = buffer.featureExpectations;
+        double Z = getZ(pos, buffer);
+        
+        for (int i = patternSetOffsets[pos] + 1; i < patternSetOffsets[pos + 1]; ++i) {
+            double expectation = -sigma[i] / Z;
+            if (Double.isInfinite(expectation) || Double.isNaN(expectation)) {
+                continue;
+            }
+            for (int j = featureOffsets[i]; j < featureOffsets[i + 1]; ++j) {
+                featureExpectations[features[j]] += expectation;
+            }
+        }
+    }
+    
+    /**
+     * Returns the Z (normalization factor) computed at the position.
+     * @param pos
+     * @param buffer
+     * @return
+     */
+    double getZ(int pos, LatticeBuffer buffer) {
+        return buffer.sigma[patternSetOffsets[pos]];
+    }
+    
     /**
      * Returns the significand of the Z (normalization factor).
+     * @param buffer
      * @return
      */
-    double getZSignificand() {
-        return patternSetList.get(patternSetList.size() - 1).getZ();
+    double getZSignificand(LatticeBuffer buffer) {
+        return getZ(length() - 1, buffer);
     }
     
     /**
      * Returns the exponent of the Z (normalization factor).
+     * @param buffer
      * @return
      */
-    int getZExponent() {
+    int getZExponent(LatticeBuffer buffer) {
         int exponent = 0;
-        for (PatternSet patternSet : patternSetList) {
-            exponent += patternSet.scale;
+        for (int pos = 0; pos < length(); ++pos) {
+            exponent += buffer.scale[pos];
         }
-        return exponent;
+        // the significand at the last position is also scaled by the backward pass at that position
+        return exponent + buffer.scale[length() - 1];
     }
     
     /**
      * Calculates the log likelihood of the train set labels.
+     * @param buffer the buffer used in the last call of accumulateFeatureExpectation
      * @return log likelihood
      */
-    double calcLogLikelihood() {
+    double calcLogLikelihood(LatticeBuffer buffer) {
         double ret = 0.0;
         // log probability of the train set labels
-        for (PatternSet patternSet : patternSetList) {
-            ret += Math.log(patternSet.longestMatchPattern.expWeight);
+        for (int pos = 0; pos < length(); ++pos) {
+            ret += Math.log(buffer.expWeight[longestMatchPatterns[pos]]);
         }
         // log probability of the train set
-        ret -= Math.log(getZSignificand());
+        ret -= Math.log(getZSignificand(buffer));
         // scale
-        ret -= Math.log(2.0) * getZExponent();
+        ret -= Math.log(2.0) * getZExponent(buffer);
         
         if (Double.isInfinite(ret) || Double.isNaN(ret)) {
             ret = 0.0;
@@ -110,82 +390,559 @@ public class PatternSetSequence {
         this.reversedLabelMapForDebugging = reversedLabelMap;
     }
     
+    /**
+     * Initialize the best scores of the patterns at the beginning with their weights.
+     * @param buffer
+     */
+    void setFirstBestScores(LatticeBuffer buffer) {
+        for (int i = patternSetOffsets[0] + 1; i < patternSetOffsets[1]; ++i) {
+            buffer.bestScore[i] = buffer.expWeight[i];
+        }
+        buffer.bestScore[patternSetOffsets[0]] = 0.0;
+    }
+    
+    /**
+     * Resets the best scores of the patterns at the position for a specific label.
+     * @param pos
+     * @param buffer
+     */
+    void resetBestScoresForLabel(int pos, LatticeBuffer buffer) {
+        for (int i = patternSetOffsets[pos] + 1; i < patternSetOffsets[pos + 1]; ++i) {
+            buffer.bestScoreForLabel[i] = buffer.bestScore[i];
+            buffer.bestPrefixPattern[i] = i;
+        }
+        buffer.bestScoreForLabel[patternSetOffsets[pos]] = 0.0;
+    }
+    
     /**
      * Infers the labels.
+     * The log score of the inferred label sequence is set to the buffer.
+     * @param featureExpWeights the exponentiated weights of the features
+     * @param buffer
      * @return
      */
-    int[] decode() {
+    int[] decode(double[] featureExpWeights, LatticeBuffer buffer) {
         boolean isDebugging = DebugInfoManager.getInstance().getDebugMode();
         
-        for (PatternSet patternSet : patternSetList) {
-            patternSet.initializeScores();
-            patternSet.setPatternWeights();
+        initializeScores(buffer);
+        for (int pos = 0; pos < length(); ++pos) {
+            setPatternWeights(pos, featureExpWeights, buffer);
         }
         
-        patternSetList.get(0).setFirstBestScores();
+        setFirstBestScores(buffer);
+        
+        double[] expWeight = buffer.expWeight;
+        double[] bestScore = buffer.bestScore;
+        double[] bestScoreForLabel = buffer.bestScoreForLabel;
+        int[] bestPrefixPattern = buffer.bestPrefixPattern;
+        int[] bestPrevPattern = buffer.bestPrevPattern;
         
-        for (int i = 1; i < patternSetList.size(); ++i) {
+        for (int pos = 1; pos < length(); ++pos) {
             if (isDebugging) {
-                System.out.println("Position " + i);
+                System.out.println("Position " + pos);
             }
             
-            int prevLabel = -1; 
-            PatternSet patternSet = patternSetList.get(i);
-            PatternSet prevPatternSet = patternSetList.get(i - 1);
-            int prevPatternSetIndex = prevPatternSet.patternList.size() - 1;
+            int prevLabel = -1;
+            int prevPatternIndex = patternSetOffsets[pos] - 1;
             
-            for (int patternSetIndex = patternSet.patternList.size() - 1; patternSetIndex > 0; --patternSetIndex) {
-                Pattern pattern = patternSet.patternList.get(patternSetIndex);
-                if (pattern.labelSequence.labels[0] != prevLabel) {
-                    prevPatternSet.resetBestScoresForLabel();
-                    prevPatternSetIndex = prevPatternSet.patternList.size() - 1;
-                }
-                prevLabel = pattern.labelSequence.labels[0];
-                while (prevPatternSet.patternList.get(prevPatternSetIndex) != pattern.prevPattern) {
-                    Pattern prevPattern = prevPatternSet.patternList.get(prevPatternSetIndex);
-                    if (prevPattern.bestScoreForLabel > prevPattern.longestSuffixPattern.bestScoreForLabel) {
-                        prevPattern.longestSuffixPattern.bestScoreForLabel = prevPattern.bestScoreForLabel;
-                        prevPattern.longestSuffixPattern.bestPrefixPattern = prevPattern.bestPrefixPattern;
+            for (int i = patternSetOffsets[pos + 1] - 1; i > patternSetOffsets[pos]; --i) {
+                if (lastLabels[i] != prevLabel) {
+                    resetBestScoresForLabel(pos - 1, buffer);
+                    prevPatternIndex = patternSetOffsets[pos] - 1;
+                }
+                prevLabel = lastLabels[i];
+                int prevPattern = prevPatterns[i];
+                while (prevPatternIndex != prevPattern) {
+                    int suffix = longestSuffixPatterns[prevPatternIndex];
+                    if (bestScoreForLabel[prevPatternIndex] > bestScoreForLabel[suffix]) {
+                        bestScoreForLabel[suffix] = bestScoreForLabel[prevPatternIndex];
+                        bestPrefixPattern[suffix] = bestPrefixPattern[prevPatternIndex];
                     }
-                    --prevPatternSetIndex;
+                    --prevPatternIndex;
                 }
-                pattern.bestScore = pattern.prevPattern.bestScoreForLabel * pattern.expWeight;
-                pattern.bestPrevPattern = pattern.prevPattern.bestPrefixPattern;
+                bestScore[i] = bestScoreForLabel[prevPattern] * expWeight[i];
+                bestPrevPattern[i] = bestPrefixPattern[prevPattern];
                 
                 if (isDebugging) {
                     System.out.print("Current Pattern: ");
-                    System.out.println(pattern);
+                    System.out.println(patternToString(i));
                     System.out.print("Weight: ");
-                    System.out.println(pattern.expWeight);
+                    System.out.println(expWeight[i]);
                     System.out.print("Score: ");
-                    System.out.println(pattern.bestScore);
+                    System.out.println(bestScore[i]);
                     System.out.print("Best prev pattern: ");
-                    System.out.println(pattern.bestPrevPattern);
+                    System.out.println(patternToString(bestPrevPattern[i]));
                     System.out.print("Best prev pattern score: ");
-                    System.out.println(pattern.bestPrevPattern.bestScore);
+                    System.out.println(bestScore[bestPrevPattern[i]]);
                 }
                 
-                --prevPatternSetIndex;
+                --prevPatternIndex;
+            }
+        }
+        
+        int bestPattern = DUMMY_PATTERN_INDEX;
+        for (int i = patternSetOffsets[length() - 1] + 1; i < patternSetOffsets[length()]; ++i) {
+            if (bestScore[i] > bestScore[bestPattern]) {
+                bestPattern = i;
+            }
+        }
+        
+        int[] ret = new int[length()];
+        double logScore = 0.0;
+        
+        for (int pos = length() - 1; pos >= 0; --pos) {
+            ret[pos] = lastLabels[bestPattern];
+            logScore += Math.log(expWeight[bestPattern]);
+            bestPattern = bestPrevPattern[bestPattern];
+        }
+        buffer.bestLogScore = logScore;
+        return ret;
+    }
+    
+    /**
+     * Sets the logarithmic weights for the patterns at the position from the quantized weights of the features.
+     * All the features of a pattern have the order of the pattern, which is one more than that of its previous pattern,
+     * so the integer values of the features are summed and multiplied by the scale of the order once for each pattern.
+     * @param pos
+     * @param quantizedWeights
+     * @param buffer
+     */
+    void setPatternLogWeights(int pos, QuantizedWeights quantizedWeights, LatticeBuffer buffer) {
+        double[] logWeight = buffer.logWeight;
+        int[] patternOrder = buffer.patternOrder;
+        byte[] byteValues = quantizedWeights.byteValues;
+        short[] shortValues = quantizedWeights.shortValues;
+        logWeight[patternSetOffsets[pos]] = 0.0;
+        patternOrder[patternSetOffsets[pos]] = 0;
+        for (int i = patternSetOffsets[pos] + 1; i < patternSetOffsets[pos + 1]; ++i) {
+            int sum = 0;
+            if (byteValues != null) {
+                for (int j = featureOffsets[i]; j < featureOffsets[i + 1]; ++j) {
+                    sum += byteValues[features[j]];
+                }
+            } else {
+                for (int j = featureOffsets[i]; j < featureOffsets[i + 1]; ++j) {
+                    sum += shortValues[features[j]];
+                }
             }
-//            patternSet.scaleBestScores();
+            int order = patternOrder[prevPatterns[i]] + 1;
+            patternOrder[i] = order;
+            logWeight[i] = logWeight[longestSuffixPatterns[i]] + sum * quantizedWeights.scales[order];
+        }
+    }
+    
+    /**
+     * Infers the labels with the quantized weights of the features.
+     * The same as decode() with the exponentiated weights, except that the scores are logarithmic,
+     * so they are added instead of multiplied and the patterns that are not reached have negative infinity instead of 0.
+     * @param quantizedWeights
+     * @param buffer
+     * @return
+     */
+    int[] decode(QuantizedWeights quantizedWeights, LatticeBuffer buffer) {
+        initializeScores(buffer);
+        int numPatterns = getNumPatterns();
+        buffer.logWeight[DUMMY_PATTERN_INDEX] = 0.0;
+        buffer.patternOrder[DUMMY_PATTERN_INDEX] = 0;
+        for (int pos = 0; pos < length(); ++pos) {
+            setPatternLogWeights(pos, quantizedWeights, buffer);
         }
         
-        PatternSet lastPatternSet = patternSetList.get(patternSetList.size() - 1);
-        Pattern bestPattern = Pattern.DUMMY_PATTERN;
+        double[] logWeight = buffer.logWeight;
+        double[] bestScore = buffer.bestScore;
+        double[] bestScoreForLabel = buffer.bestScoreForLabel;
+        int[] bestPrefixPattern = buffer.bestPrefixPattern;
+        int[] bestPrevPattern = buffer.bestPrevPattern;
+        Arrays.fill(bestScore, 0, numPatterns, Double.NEGATIVE_INFINITY);
+        Arrays.fill(bestScoreForLabel, 0, numPatterns, Double.NEGATIVE_INFINITY);
+        for (int i = patternSetOffsets[0] + 1; i < patternSetOffsets[1]; ++i) {
+            bestScore[i] = logWeight[i];
+        }
+        
+        for (int pos = 1; pos < length(); ++pos) {
+            int prevLabel = -1;
+            int prevPatternIndex = patternSetOffsets[pos] - 1;
+            
+            for (int i = patternSetOffsets[pos + 1] - 1; i > patternSetOffsets[pos]; --i) {
+                if (lastLabels[i] != prevLabel) {
+                    for (int j = patternSetOffsets[pos - 1] + 1; j < patternSetOffsets[pos]; ++j) {
+                        bestScoreForLabel[j] = bestScore[j];
+                        bestPrefixPattern[j] = j;
+                    }
+                    bestScoreForLabel[patternSetOffsets[pos - 1]] = Double.NEGATIVE_INFINITY;
+                    prevPatternIndex = patternSetOffsets[pos] - 1;
+                }
+                prevLabel = lastLabels[i];
+                int prevPattern = prevPatterns[i];
+                while (prevPatternIndex != prevPattern) {
+                    int suffix = longestSuffixPatterns[prevPatternIndex];
+                    if (bestScoreForLabel[prevPatternIndex] > bestScoreForLabel[suffix]) {
+                        bestScoreForLabel[suffix] = bestScoreForLabel[prevPatternIndex];
+                        bestPrefixPattern[suffix] = bestPrefixPattern[prevPatternIndex];
+                    }
+                    --prevPatternIndex;
+                }
+                bestScore[i] = bestScoreForLabel[prevPattern] + logWeight[i];
+                bestPrevPattern[i] = bestPrefixPattern[prevPattern];
+                --prevPatternIndex;
+            }
+        }
         
-        for (int i = 1; i < lastPatternSet.patternList.size(); ++i) {
-            Pattern pattern = lastPatternSet.patternList.get(i);
-            if (pattern.bestScore > bestPattern.bestScore) {
-                bestPattern = pattern;
+        int bestPattern = DUMMY_PATTERN_INDEX;
+        for (int i = patternSetOffsets[length() - 1] + 1; i < patternSetOffsets[length()]; ++i) {
+            if (bestScore[i] > bestScore[bestPattern]) {
+                bestPattern = i;
             }
         }
         
-        int[] ret = new int[patternSetList.size()];
-
-        for (int i = patternSetList.size() - 1; i >= 0; --i) {
-            ret[i] = bestPattern.labelSequence.labels[0];
-            bestPattern = bestPattern.bestPrevPattern;
+        int[] ret = new int[length()];
+        
+        for (int pos = length() - 1; pos >= 0; --pos) {
+            ret[pos] = lastLabels[bestPattern];
+            bestPattern = bestPrevPattern[bestPattern];
+        }
+        return ret;
+    }
+    
+    /**
+     * Infers the labels, keeping only the patterns with the best scores at each position (beam search).
+     * When the scores at a position are computed, only the patterns in the beam at the previous position
+     * and their suffix patterns are visited, so the cost grows with the beam size
+     * rather than with the number of the patterns at the previous position.
+     * The result can differ from the one of decode() if the best label sequence falls out of the beam.
+     * @param featureExpWeights the exponentiated weights of the features
+     * @param buffer
+     * @param beamSize the maximum number of the patterns kept at each position, or 0 for no limit
+     * @param beamThreshold the maximum difference of the log scores of the patterns kept at each position
+     * from the best one, or Double.POSITIVE_INFINITY for no limit
+     * @return
+     */
+    int[] decode(double[] featureExpWeights, LatticeBuffer buffer, int beamSize, double beamThreshold) {
+        if (beamSize <= 0 && beamThreshold == Double.POSITIVE_INFINITY) {
+            return decode(featureExpWeights, buffer);
+        }
+        
+        initializeScores(buffer);
+        for (int pos = 0; pos < length(); ++pos) {
+            setPatternWeights(pos, featureExpWeights, buffer);
+        }
+        Arrays.fill(buffer.isInBeam, 0, getNumPatterns(), false);
+        buffer.isInBeam[DUMMY_PATTERN_INDEX] = true;
+        buffer.beamOffsets[0] = 0;
+        
+        setFirstBestScores(buffer);
+        pruneBeam(0, beamSize, beamThreshold, buffer);
+        
+        double[] expWeight = buffer.expWeight;
+        double[] bestScore = buffer.bestScore;
+        double[] bestScoreForLabel = buffer.bestScoreForLabel;
+        int[] bestPrefixPattern = buffer.bestPrefixPattern;
+        int[] bestPrevPattern = buffer.bestPrevPattern;
+        int[] beamPatterns = buffer.beamPatterns;
+        
+        for (int pos = 1; pos < length(); ++pos) {
+            int beamStart = buffer.beamOffsets[pos - 1];
+            int beamEnd = buffer.beamOffsets[pos];
+            int prevLabel = -1;
+            int beamIndex = beamStart;
+            
+            // the same as decode(), except that the patterns out of the beam are skipped
+            // (their scores for the label stay 0, as they are never reset nor propagated to)
+            for (int i = patternSetOffsets[pos + 1] - 1; i > patternSetOffsets[pos]; --i) {
+                if (lastLabels[i] != prevLabel) {
+                    for (int j = beamStart; j < beamEnd; ++j) {
+                        int pattern = beamPatterns[j];
+                        bestScoreForLabel[pattern] = bestScore[pattern];
+                        bestPrefixPattern[pattern] = pattern;
+                    }
+                    beamIndex = beamStart;
+                }
+                prevLabel = lastLabels[i];
+                int prevPattern = prevPatterns[i];
+                while (beamIndex < beamEnd && beamPatterns[beamIndex] > prevPattern) {
+                    int pattern = beamPatterns[beamIndex];
+                    int suffix = longestSuffixPatterns[pattern];
+                    if (bestScoreForLabel[pattern] > bestScoreForLabel[suffix]) {
+                        bestScoreForLabel[suffix] = bestScoreForLabel[pattern];
+                        bestPrefixPattern[suffix] = bestPrefixPattern[pattern];
+                    }
+                    ++beamIndex;
+                }
+                if (beamIndex < beamEnd && beamPatterns[beamIndex] == prevPattern) {
+                    ++beamIndex;
+                }
+                bestScore[i] = bestScoreForLabel[prevPattern] * expWeight[i];
+                bestPrevPattern[i] = bestPrefixPattern[prevPattern];
+            }
+            pruneBeam(pos, beamSize, beamThreshold, buffer);
+        }
+        
+        int bestPattern = DUMMY_PATTERN_INDEX;
+        for (int i = patternSetOffsets[length() - 1] + 1; i < patternSetOffsets[length()]; ++i) {
+            if (bestScore[i] > bestScore[bestPattern]) {
+                bestPattern = i;
+            }
+        }
+        
+        int[] ret = new int[length()];
+        
+        for (int pos = length() - 1; pos >= 0; --pos) {
+            ret[pos] = lastLabels[bestPattern];
+            bestPattern = bestPrevPattern[bestPattern];
         }
         return ret;
     }
+    
+    /**
+     * Clears the best scores of the patterns at the position that fall out of the beam,
+     * and adds the rest of the patterns and all their suffix patterns to the beam, in descending order.
+     * @param pos
+     * @param beamSize
+     * @param beamThreshold
+     * @param buffer
+     */
+    void pruneBeam(int pos, int beamSize, double beamThreshold, LatticeBuffer buffer) {
+        double[] bestScore = buffer.bestScore;
+        double[] beamScores = buffer.beamScores;
+        boolean[] isInBeam = buffer.isInBeam;
+        int start = patternSetOffsets[pos] + 1;
+        int end = patternSetOffsets[pos + 1];
+        
+        double maxScore = 0.0;
+        for (int i = start; i < end; ++i) {
+            maxScore = Math.max(maxScore, bestScore[i]);
+        }
+        double minScore = maxScore * Math.exp(-beamThreshold);
+        int numScores = 0;
+        for (int i = start; i < end; ++i) {
+            if (bestScore[i] > 0.0 && bestScore[i] >= minScore) {
+                beamScores[numScores++] = bestScore[i];
+            }
+        }
+        if (beamSize > 0 && numScores > beamSize) {
+            minScore = selectKthLargest(beamScores, numScores, beamSize);
+        }
+        
+        for (int i = start; i < end; ++i) {
+            if (bestScore[i] > 0.0 && bestScore[i] >= minScore) {
+                for (int pattern = i; !isInBeam[pattern]; pattern = longestSuffixPatterns[pattern]) {
+                    isInBeam[pattern] = true;
+                }
+            } else {
+                bestScore[i] = 0.0;
+            }
+        }
+        int count = buffer.beamOffsets[pos];
+        for (int i = end - 1; i >= start - 1; --i) {
+            if (isInBeam[i]) {
+                buffer.beamPatterns[count++] = i;
+            }
+        }
+        buffer.beamOffsets[pos + 1] = count;
+    }
+    
+    /**
+     * Returns the k-th largest of the first n values of the array, which are reordered (quickselect).
+     * @param values
+     * @param n
+     * @param k
+     * @return
+     */
+    static double selectKthLargest(double[] values, int n, int k) {
+        int target = k - 1;
+        int left = 0;
+        int right = n - 1;
+        while (left < right) {
+            double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] > pivot) {
+                    ++i;
+                }
+                while (values[j] < pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    double tmp = values[i];
+                    values[i] = values[j];
+                    values[j] = tmp;
+                    ++i;
+                    --j;
+                }
+            }
+            if (target <= j) {
+                right = j;
+            } else if (target >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[target];
+    }
+    
+    /**
+     * Infers the n best label sequences in one pass over the lattice.
+     * Each pattern keeps the n best of the label sequences whose longest matching pattern at its position is the pattern,
+     * and the lists are merged along the suffix links in the same way as the best scores in decode().
+     * The scores are kept in the log domain, so that the long sequences do not underflow.
+     * @param featureExpWeights the exponentiated weights of the features
+     * @param buffer
+     * @param n the maximum number of the label sequences
+     * @param logProbabilities the array of size n to which the log conditional probabilities of the label sequences are set
+     * @return the label sequences in the descending order of the probabilities, fewer than n if there are not so many
+     */
+    int[][] decodeNBest(double[] featureExpWeights, LatticeBuffer buffer, int n, double[] logProbabilities) {
+        // the forward pass for the normalization factor
+        initializeScores(buffer);
+        for (int pos = 0; pos < length(); ++pos) {
+            setPatternWeights(pos, featureExpWeights, buffer);
+            calcAlpha(pos, buffer);
+            calcGamma(pos, buffer);
+        }
+        int exponent = 0;
+        for (int pos = 0; pos < length(); ++pos) {
+            exponent += buffer.scale[pos];
+        }
+        double logZ = Math.log(buffer.gamma[patternSetOffsets[length() - 1]]) + Math.log(2.0) * exponent;
+        
+        buffer.ensureNBestCapacity(getNumPatterns(), n);
+        double[] expWeight = buffer.expWeight;
+        double[] scores = buffer.nBestScores;
+        int[] bestPrevPatterns = buffer.nBestPrevPatterns;
+        int[] bestPrevRanks = buffer.nBestPrevRanks;
+        int[] counts = buffer.nBestCounts;
+        double[] scoresForLabel = buffer.nBestScoresForLabel;
+        int[] prefixPatterns = buffer.nBestPrefixPatterns;
+        int[] prefixRanks = buffer.nBestPrefixRanks;
+        int[] countsForLabel = buffer.nBestCountsForLabel;
+        Arrays.fill(counts, 0, getNumPatterns(), 0);
+        Arrays.fill(countsForLabel, 0, getNumPatterns(), 0);
+        
+        for (int i = patternSetOffsets[0] + 1; i < patternSetOffsets[1]; ++i) {
+            scores[i * n] = Math.log(expWeight[i]);
+            bestPrevPatterns[i * n] = DUMMY_PATTERN_INDEX;
+            bestPrevRanks[i * n] = 0;
+            counts[i] = 1;
+        }
+        
+        for (int pos = 1; pos < length(); ++pos) {
+            int prevLabel = -1;
+            int prevPatternIndex = patternSetOffsets[pos] - 1;
+            
+            for (int i = patternSetOffsets[pos + 1] - 1; i > patternSetOffsets[pos]; --i) {
+                if (lastLabels[i] != prevLabel) {
+                    for (int j = patternSetOffsets[pos - 1]; j < patternSetOffsets[pos]; ++j) {
+                        for (int rank = 0; rank < counts[j]; ++rank) {
+                            scoresForLabel[j * n + rank] = scores[j * n + rank];
+                            prefixPatterns[j * n + rank] = j;
+                            prefixRanks[j * n + rank] = rank;
+                        }
+                        countsForLabel[j] = counts[j];
+                    }
+                    prevPatternIndex = patternSetOffsets[pos] - 1;
+                }
+                prevLabel = lastLabels[i];
+                int prevPattern = prevPatterns[i];
+                while (prevPatternIndex != prevPattern) {
+                    mergeNBestForLabel(prevPatternIndex, longestSuffixPatterns[prevPatternIndex], buffer);
+                    --prevPatternIndex;
+                }
+                double logWeight = Math.log(expWeight[i]);
+                for (int rank = 0; rank < countsForLabel[prevPattern]; ++rank) {
+                    scores[i * n + rank] = scoresForLabel[prevPattern * n + rank] + logWeight;
+                    bestPrevPatterns[i * n + rank] = prefixPatterns[prevPattern * n + rank];
+                    bestPrevRanks[i * n + rank] = prefixRanks[prevPattern * n + rank];
+                }
+                counts[i] = countsForLabel[prevPattern];
+                --prevPatternIndex;
+            }
+        }
+        
+        // picks the n best entries of all the patterns at the last position, whose lists are sorted
+        int[] heads = countsForLabel;
+        int lastStart = patternSetOffsets[length() - 1] + 1;
+        int lastEnd = patternSetOffsets[length()];
+        Arrays.fill(heads, lastStart, lastEnd, 0);
+        int[][] ret = new int[n][];
+        int numResults = 0;
+        while (numResults < n) {
+            int bestPattern = -1;
+            for (int i = lastStart; i < lastEnd; ++i) {
+                if (heads[i] < counts[i] && (bestPattern < 0 || scores[i * n + heads[i]] > scores[bestPattern * n + heads[bestPattern]])) {
+                    bestPattern = i;
+                }
+            }
+            if (bestPattern < 0) {
+                break;
+            }
+            int pattern = bestPattern;
+            int rank = heads[bestPattern]++;
+            logProbabilities[numResults] = scores[pattern * n + rank] - logZ;
+            int[] labels = new int[length()];
+            for (int pos = length() - 1; pos >= 0; --pos) {
+                labels[pos] = lastLabels[pattern];
+                int prevPattern = bestPrevPatterns[pattern * n + rank];
+                rank = bestPrevRanks[pattern * n + rank];
+                pattern = prevPattern;
+            }
+            ret[numResults++] = labels;
+        }
+        return Arrays.copyOf(ret, numResults);
+    }
+    
+    /**
+     * Merges the N-best list for a label of a pattern into that of another pattern, keeping the n best entries.
+     * @param from
+     * @param to
+     * @param buffer
+     */
+    static void mergeNBestForLabel(int from, int to, LatticeBuffer buffer) {
+        int n = buffer.nBestSize;
+        double[] scores = buffer.nBestScoresForLabel;
+        int[] prefixPatterns = buffer.nBestPrefixPatterns;
+        int[] prefixRanks = buffer.nBestPrefixRanks;
+        int fromCount = buffer.nBestCountsForLabel[from];
+        int toCount = buffer.nBestCountsForLabel[to];
+        if (fromCount == 0) {
+            return;
+        }
+        double[] mergedScores = buffer.mergedScores;
+        int[] mergedPatterns = buffer.mergedPatterns;
+        int[] mergedRanks = buffer.mergedRanks;
+        int a = 0;
+        int b = 0;
+        int count = 0;
+        while (count < n && (a < fromCount || b < toCount)) {
+            int index;
+            if (b >= toCount || (a < fromCount && scores[from * n + a] > scores[to * n + b])) {
+                index = from * n + a++;
+            } else {
+                index = to * n + b++;
+            }
+            mergedScores[count] = scores[index];
+            mergedPatterns[count] = prefixPatterns[index];
+            mergedRanks[count] = prefixRanks[index];
+            ++count;
+        }
+        System.arraycopy(mergedScores, 0, scores, to * n, count);
+        System.arraycopy(mergedPatterns, 0, prefixPatterns, to * n, count);
+        System.arraycopy(mergedRanks, 0, prefixRanks, to * n, count);
+        buffer.nBestCountsForLabel[to] = count;
+    }
+    
+    /**
+     * Returns the label of the pattern for debugging.
+     * @param index
+     * @return
+     */
+    String patternToString(int index) {
+        if (!DebugInfoManager.getInstance().getDebugMode()) {
+            return "";
+        }
+        @SuppressWarnings("unchecked")
+        Map<Integer, String> reversedLabelMap = (Map<Integer, String>)DebugInfoManager.getInstance().getDebugData("ReversedLabelMap");
+        return index + ":" + reversedLabelMap.get(lastLabels[index]);
+    }
 }
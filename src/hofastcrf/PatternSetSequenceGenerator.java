@@ -0,0 +1,86 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.List;
+
+import parallel.Schedulable;
+
+/**
+ * The class that generates the PatternSetSequences of a range of data sequences in parallel.
+ * The results are stored in the order of the data sequences.
+ * @author Hiroshi Manabe
+ */
+public class PatternSetSequenceGenerator implements Schedulable {
+    
+    int curID;
+    List<DataSequence> dataSequenceList;
+    FeatureIndex featureIndex;
+    int offset;
+    PatternSetSequence[] patternSetSequences;
+    
+    /**
+     * Constructor.
+     * @param dataSequenceList
+     * @param featureIndex
+     * @param from the index of the first data sequence
+     * @param to the index after the last data sequence
+     */
+    public PatternSetSequenceGenerator(List<DataSequence> dataSequenceList, FeatureIndex featureIndex, int from, int to) {
+        curID = -1;
+        this.dataSequenceList = dataSequenceList;
+        this.featureIndex = featureIndex;
+        this.offset = from;
+        this.patternSetSequences = new PatternSetSequence[to - from];
+    }
+    
+    /**
+     * Returns the generated PatternSetSequences.
+     * @return the PatternSetSequences indexed from the first data sequence of the range
+     */
+    public PatternSetSequence[] getPatternSetSequences() {
+        return patternSetSequences;
+    }
+    
+    @Override
+    public Object compute(int taskID) {
+        patternSetSequences[taskID] = dataSequenceList.get(offset + taskID).generatePatternSetSequence(featureIndex);
+        return null;
+    }
+    
+    @Override
+    public int getNumTasks() {
+        return patternSetSequences.length;
+    }
+    
+    @Override
+    public synchronized int fetchCurrTaskID() {
+        if (curID < getNumTasks()) {
+            curID++;
+        }
+        return curID;
+    }
+    
+    @Override
+    public void update(Object partialResult) {
+        // Does nothing
+    }
+}
@@ -0,0 +1,141 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+/**
+ * The weights of the features of a model in 8-bit or 16-bit fixed point, for the smaller models for the inference.
+ *
+ * The (logarithmic) weight of a feature of the order k is stored as an integer q with the weight q * scales[k].
+ * The scale of each order is chosen so that its largest absolute weight maps to the largest integer,
+ * as the weights of the higher orders are usually much smaller than those of the first order.
+ * All the features of a pattern have the same order, so its weight is the sum of the integers times one scale
+ * (see PatternSetSequence.setPatternLogWeights()).
+ * @author Hiroshi Manabe
+ */
+class QuantizedWeights {
+    
+    final int bits;  // 8 or 16
+    final double[] scales;  // indexed by the orders, scales[0] is unused
+    final byte[] byteValues;  // for 8 bits, null otherwise
+    final short[] shortValues;  // for 16 bits, null otherwise
+    
+    /**
+     * Constructor.
+     * @param bits 8 or 16
+     * @param scales the scales indexed by the orders
+     * @param byteValues the values for 8 bits, or null
+     * @param shortValues the values for 16 bits, or null
+     */
+    QuantizedWeights(int bits, double[] scales, byte[] byteValues, short[] shortValues) {
+        this.bits = bits;
+        this.scales = scales;
+        this.byteValues = byteValues;
+        this.shortValues = shortValues;
+    }
+    
+    /**
+     * Checks the number of the bits of the quantized weights.
+     * @param bits
+     * @throws IllegalArgumentException if it is neither 8 nor 16
+     */
+    static void checkBits(int bits) {
+        if (bits != 8 && bits != 16) {
+            throw new IllegalArgumentException("The weights can be quantized only to 8 or 16 bits: " + bits);
+        }
+    }
+    
+    /**
+     * Quantizes the weights of the features.
+     * @param weights the (logarithmic) weights
+     * @param featureOrders the orders of the features
+     * @param maxOrder
+     * @param bits 8 or 16
+     * @return
+     */
+    static QuantizedWeights quantize(double[] weights, int[] featureOrders, int maxOrder, int bits) {
+        checkBits(bits);
+        int maxValue = (1 << (bits - 1)) - 1;
+        double[] scales = new double[maxOrder + 1];
+        for (int i = 0; i < weights.length; ++i) {
+            scales[featureOrders[i]] = Math.max(scales[featureOrders[i]], Math.abs(weights[i]));
+        }
+        for (int k = 0; k <= maxOrder; ++k) {
+            scales[k] = (scales[k] > 0.0) ? scales[k] / maxValue : 1.0;
+        }
+        
+        byte[] byteValues = (bits == 8) ? new byte[weights.length] : null;
+        short[] shortValues = (bits == 16) ? new short[weights.length] : null;
+        for (int i = 0; i < weights.length; ++i) {
+            long value = Math.round(weights[i] / scales[featureOrders[i]]);
+            value = Math.max(-maxValue, Math.min(maxValue, value));
+            if (bits == 8) {
+                byteValues[i] = (byte)value;
+            } else {
+                shortValues[i] = (short)value;
+            }
+        }
+        return new QuantizedWeights(bits, scales, byteValues, shortValues);
+    }
+    
+    int getNumFeatures() {
+        return (bits == 8) ? byteValues.length : shortValues.length;
+    }
+    
+    /**
+     * Returns the integer value of a feature.
+     * @param feature
+     * @return
+     */
+    int getValue(int feature) {
+        return (bits == 8) ? byteValues[feature] : shortValues[feature];
+    }
+    
+    /**
+     * Returns the (logarithmic) weights that the values represent.
+     * @param featureOrders the orders of the features
+     * @return
+     */
+    double[] dequantize(int[] featureOrders) {
+        double[] weights = new double[getNumFeatures()];
+        for (int i = 0; i < weights.length; ++i) {
+            weights[i] = getValue(i) * scales[featureOrders[i]];
+        }
+        return weights;
+    }
+    
+    /**
+     * Returns the quantized weights of the selected features, with the same scales.
+     * @param features the feature numbers, in the new order
+     * @return
+     */
+    QuantizedWeights select(int[] features) {
+        byte[] newByteValues = (bits == 8) ? new byte[features.length] : null;
+        short[] newShortValues = (bits == 16) ? new short[features.length] : null;
+        for (int i = 0; i < features.length; ++i) {
+            if (bits == 8) {
+                newByteValues[i] = byteValues[features[i]];
+            } else {
+                newShortValues[i] = shortValues[features[i]];
+            }
+        }
+        return new QuantizedWeights(bits, scales, newByteValues, newShortValues);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The class for the text format of the sequences handled by TaggingService and TaggingPipeline.
+ * A request (or an input file) has one sequence per line, and the response has one line for each of them.
+ * @author Hiroshi Manabe
+ *
+ * @param <T> the class for the observations.
+ */
+public abstract class SequenceFormat<T> {
+    
+    /**
+     * Parses a line of a request into an observation sequence without valid labels.
+     * @param line
+     * @return
+     * @throws IllegalArgumentException if the line is malformed
+     */
+    public abstract ObservationSequence<T> parse(String line);
+    
+    /**
+     * Formats the predicted labels of a sequence into a line of the response.
+     * @param observationSequence
+     * @param labels
+     * @return
+     */
+    public abstract String format(ObservationSequence<T> observationSequence, String[] labels);
+    
+    /**
+     * Creates a reader of the sequences, one per line. The empty lines are skipped.
+     * @param in
+     * @return
+     */
+    public SequenceReader<T> createReader(final BufferedReader in) {
+        return new SequenceReader<T>() {
+            @Override
+            public ObservationSequence<T> read() throws IOException {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        return parse(line);
+                    }
+                }
+                return null;
+            }
+            
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+    
+    /**
+     * Creates a writer of the formatted sequences, one per line.
+     * @param out which should be buffered
+     * @return
+     */
+    public SequenceWriter<T> createWriter(final Writer out) {
+        return new SequenceWriter<T>() {
+            @Override
+            public void write(ObservationSequence<T> observationSequence, String[] labels) throws IOException {
+                out.write(format(observationSequence, labels));
+                out.write('\n');
+            }
+            
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The class that reads the observation sequences from a file one by one,
+ * so that a large file can be processed without holding all the sequences (see TaggingPipeline).
+ * @author Hiroshi Manabe
+ *
+ * @param <T> the class for the observations.
+ */
+public abstract class SequenceReader<T> implements Closeable {
+    
+    /**
+     * Reads the next observation sequence.
+     * @return the sequence, or null if there are no more sequences
+     * @throws IOException
+     */
+    public abstract ObservationSequence<T> read() throws IOException;
+    
+    /**
+     * Reads all the remaining observation sequences.
+     * @return
+     * @throws IOException
+     */
+    public List<ObservationSequence<T>> readAll() throws IOException {
+        List<ObservationSequence<T>> observationSequenceList = new ArrayList<ObservationSequence<T>>();
+        ObservationSequence<T> observationSequence;
+        while ((observationSequence = read()) != null) {
+            observationSequenceList.add(observationSequence);
+        }
+        return observationSequenceList;
+    }
+}
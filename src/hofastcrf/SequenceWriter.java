@@ -0,0 +1,41 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The class that receives the observation sequences with their predicted labels one by one (see TaggingPipeline).
+ * @author Hiroshi Manabe
+ *
+ * @param <T> the class for the observations.
+ */
+public abstract class SequenceWriter<T> implements Closeable {
+    
+    /**
+     * Writes an observation sequence with its predicted labels.
+     * @param observationSequence
+     * @param labels
+     * @throws IOException
+     */
+    public abstract void write(ObservationSequence<T> observationSequence, String[] labels) throws IOException;
+}
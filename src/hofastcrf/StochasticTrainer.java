@@ -0,0 +1,359 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import parallel.Schedulable;
+import parallel.Scheduler;
+import parallel.WorkerPool;
+
+/**
+ * The class that estimates the feature weights by mini-batch stochastic gradient ascent,
+ * as an alternative to the full-batch QNMinimizer.
+ * 
+ * The sequences are shuffled every epoch and processed in mini-batches, whose members are computed in parallel.
+ * Only the weights of the features that appear in the lattices of a mini-batch are updated.
+ * The regularization is decoupled from the (possibly adaptive) step sizes and follows the global learning rate schedule,
+ * so that it can be applied lazily: the decay (L2) or the cumulative penalty (L1, Tsuruoka et al. 2009) that a feature
+ * has missed is applied when the feature appears in a mini-batch, and to all the features at the end of each epoch.
+ * The objective is the log likelihood averaged over the sequences, with the regularization coefficient divided by
+ * the number of the sequences, so that its maximum is the same as that of the full-batch objective.
+ * The order of the sequences in an epoch depends only on the epoch number, so a training resumed from a checkpoint
+ * (see TrainingCheckpoint) follows the same path as the uninterrupted one.
+ * @author Hiroshi Manabe
+ */
+public class StochasticTrainer implements Schedulable {
+    
+    public static final int SGD = 0;
+    public static final int ADAGRAD = 1;
+    public static final int ADAM = 2;
+    
+    static final double ADAM_BETA1 = 0.9;
+    static final double ADAM_BETA2 = 0.999;
+    static final double EPSILON = 1e-8;
+    static final long SEED = 0;
+    
+    final int method;
+    final int batchSize;
+    final double learningRate;
+    
+    int curID;
+    PatternSetSequence[] batch;
+    int numBatchSequences;
+    LogLikelihood batchLogLikelihood;
+    int numFeatures;
+    double[] lambda;
+    double[] featureExpWeights;
+    double[] firstMoments;  // the sums of the squared gradients for AdaGrad, the first moments for Adam
+    double[] secondMoments;  // the second moments for Adam
+    boolean useL1Regularization;
+    double cumulativeRegularization;  // the sum of the log decay factors (L2) or of the penalties (L1)
+    double[] appliedRegularization;  // cumulativeRegularization at the last application (L2) or the applied penalty (L1)
+    List<LatticeBuffer> latticeBufferList;
+    ThreadLocal<LatticeBuffer> latticeBuffer;
+    TrainingCheckpoint checkpoint = null;
+    File checkpointFile;
+    int checkpointInterval;
+    
+    /**
+     * Constructor.
+     * @param method SGD, ADAGRAD or ADAM
+     * @param batchSize the number of the sequences in a mini-batch
+     * @param learningRate the initial learning rate for SGD (decayed every epoch), the base learning rate for AdaGrad and Adam
+     */
+    public StochasticTrainer(int method, int batchSize, double learningRate) {
+        if (method != SGD && method != ADAGRAD && method != ADAM) {
+            throw new IllegalArgumentException("Unknown method: " + method);
+        }
+        this.method = method;
+        this.batchSize = batchSize;
+        this.learningRate = learningRate;
+    }
+    
+    /**
+     * Makes the next training start from the state of the checkpoint and save its state to the checkpoint file
+     * at the end of every checkpointInterval epochs.
+     * @param checkpoint the checkpoint made for this trainer, or null not to use checkpoints
+     * @param checkpointFile the file to save the checkpoint, or null only to start from it
+     * @param checkpointInterval the number of the epochs between the checkpoints
+     */
+    void setCheckpoint(TrainingCheckpoint checkpoint, File checkpointFile, int checkpointInterval) {
+        if (checkpoint != null && checkpoint.method != method) {
+            throw new IllegalArgumentException("The checkpoint was made by another optimizer: " + checkpoint.method);
+        }
+        this.checkpoint = checkpoint;
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = checkpointInterval;
+    }
+    
+    /**
+     * Executes the training.
+     * @param patternSetSequenceList
+     * @param numFeatures
+     * @param pool the worker pool to compute the members of the mini-batches
+     * @param maxEpochs the maximum number of the passes over the sequences
+     * @param useL1Regularization true if use the L1 regularization, false if use the L2 regularization
+     * @param regularizationCoefficient regularization coefficient (either for L1 or L2)
+     * @param epsilonForConvergence the training stops when the relative change of the objective in an epoch is smaller than this
+     * @return the feature weights
+     * @throws InterruptedException
+     */
+    public double[] train(List<PatternSetSequence> patternSetSequenceList, int numFeatures, WorkerPool pool, int maxEpochs,
+            boolean useL1Regularization, double regularizationCoefficient, double epsilonForConvergence) throws InterruptedException {
+        int numSequences = patternSetSequenceList.size();
+        this.numFeatures = numFeatures;
+        this.useL1Regularization = useL1Regularization;
+        lambda = new double[numFeatures];
+        featureExpWeights = new double[numFeatures];
+        Arrays.fill(featureExpWeights, 1.0);
+        firstMoments = (method == SGD) ? null : new double[numFeatures];
+        secondMoments = (method == ADAM) ? new double[numFeatures] : null;
+        cumulativeRegularization = 0.0;
+        appliedRegularization = new double[numFeatures];
+        latticeBufferList = new ArrayList<LatticeBuffer>();
+        latticeBuffer = ThreadLocal.withInitial(this::createLatticeBuffer);
+        batch = new PatternSetSequence[batchSize];
+        
+        double regularization = regularizationCoefficient / Math.max(numSequences, 1);
+        double[] gradient = new double[numFeatures];
+        int[] marks = new int[numFeatures];
+        Arrays.fill(marks, -1);
+        int[] touchedFeatures = new int[numFeatures];
+        int[] order = new int[numSequences];
+        
+        int step = 0;
+        double prevObjective = Double.NaN;
+        int startEpoch = 0;
+        if (checkpoint != null) {
+            startEpoch = checkpoint.iteration;
+            step = checkpoint.step;
+            prevObjective = checkpoint.prevObjective;
+            cumulativeRegularization = checkpoint.cumulativeRegularization;
+            System.arraycopy(checkpoint.weights, 0, lambda, 0, numFeatures);
+            for (int i = 0; i < numFeatures; ++i) {
+                featureExpWeights[i] = Math.exp(lambda[i]);
+            }
+            if (checkpoint.appliedRegularization != null) {
+                System.arraycopy(checkpoint.appliedRegularization, 0, appliedRegularization, 0, numFeatures);
+            }
+            if (firstMoments != null && checkpoint.firstMoments != null) {
+                System.arraycopy(checkpoint.firstMoments, 0, firstMoments, 0, numFeatures);
+            }
+            if (secondMoments != null && checkpoint.secondMoments != null) {
+                System.arraycopy(checkpoint.secondMoments, 0, secondMoments, 0, numFeatures);
+            }
+        }
+        for (int epoch = startEpoch; epoch < maxEpochs; ++epoch) {
+            Random random = new Random(SEED + epoch);
+            for (int i = 0; i < numSequences; ++i) {
+                order[i] = i;
+            }
+            for (int i = numSequences - 1; i > 0; --i) {
+                int j = random.nextInt(i + 1);
+                int temp = order[i];
+                order[i] = order[j];
+                order[j] = temp;
+            }
+            
+            double logLikelihood = 0.0;
+            for (int start = 0; start < numSequences; start += batchSize) {
+                numBatchSequences = Math.min(batchSize, numSequences - start);
+                int numTouchedFeatures = 0;
+                for (int k = 0; k < numBatchSequences; ++k) {
+                    batch[k] = patternSetSequenceList.get(order[start + k]);
+                    for (int feature : batch[k].features) {
+                        if (marks[feature] != step) {
+                            marks[feature] = step;
+                            touchedFeatures[numTouchedFeatures++] = feature;
+                        }
+                    }
+                }
+                if (!useL1Regularization) {
+                    // the gradient of the batch is computed on the decayed weights
+                    for (int i = 0; i < numTouchedFeatures; ++i) {
+                        applyPendingRegularization(touchedFeatures[i]);
+                        featureExpWeights[touchedFeatures[i]] = Math.exp(lambda[touchedFeatures[i]]);
+                    }
+                }
+                
+                curID = -1;
+                batchLogLikelihood = new LogLikelihood(0.0);
+                Scheduler sch = new Scheduler(this, pool, Scheduler.DYNAMIC_NEXT_AVAILABLE);
+                sch.run();
+                logLikelihood += batchLogLikelihood.getLogLikelihood();
+                for (int i = 0; i < numTouchedFeatures; ++i) {
+                    int feature = touchedFeatures[i];
+                    double sum = 0.0;
+                    for (LatticeBuffer buffer : latticeBufferList) {
+                        sum += buffer.featureExpectations[feature];
+                        buffer.featureExpectations[feature] = 0.0;
+                    }
+                    gradient[feature] = sum / numBatchSequences;
+                }
+                Arrays.fill(batch, null);
+                
+                ++step;
+                double rate = (method == SGD) ? learningRate / (1.0 + (double)(step - 1) * batchSize / numSequences) : learningRate;
+                for (int i = 0; i < numTouchedFeatures; ++i) {
+                    updateWeight(touchedFeatures[i], gradient[touchedFeatures[i]], rate, step);
+                }
+                if (regularization != 0.0) {
+                    if (useL1Regularization) {
+                        cumulativeRegularization += rate * regularization;
+                        for (int i = 0; i < numTouchedFeatures; ++i) {
+                            applyPendingRegularization(touchedFeatures[i]);
+                        }
+                    } else {
+                        cumulativeRegularization += Math.log(Math.max(1.0 - rate * regularization, Double.MIN_NORMAL));
+                    }
+                }
+                for (int i = 0; i < numTouchedFeatures; ++i) {
+                    featureExpWeights[touchedFeatures[i]] = Math.exp(lambda[touchedFeatures[i]]);
+                }
+            }
+            
+            double penalty = 0.0;
+            for (int i = 0; i < numFeatures; ++i) {
+                applyPendingRegularization(i);
+                featureExpWeights[i] = Math.exp(lambda[i]);
+                penalty += useL1Regularization ? Math.abs(lambda[i]) * regularizationCoefficient :
+                    lambda[i] * lambda[i] * regularizationCoefficient / 2;
+            }
+            double objective = -(logLikelihood - penalty);
+            System.out.println("Epoch " + (epoch + 1) + ": objective " + objective);
+            if (Math.abs(prevObjective - objective) < epsilonForConvergence * Math.abs(objective)) {
+                break;
+            }
+            prevObjective = objective;
+            if (checkpointFile != null && (epoch + 1) % checkpointInterval == 0) {
+                checkpoint.iteration = epoch + 1;
+                checkpoint.step = step;
+                checkpoint.prevObjective = prevObjective;
+                checkpoint.cumulativeRegularization = cumulativeRegularization;
+                checkpoint.firstMoments = firstMoments;
+                checkpoint.secondMoments = secondMoments;
+                checkpoint.appliedRegularization = appliedRegularization;
+                checkpoint.save(lambda, checkpointFile);
+            }
+        }
+        
+        double[] ret = lambda;
+        lambda = null;
+        featureExpWeights = null;
+        firstMoments = null;
+        secondMoments = null;
+        appliedRegularization = null;
+        latticeBufferList = null;
+        latticeBuffer = null;
+        batch = null;
+        checkpoint = null;
+        checkpointFile = null;
+        return ret;
+    }
+    
+    /**
+     * Updates the weight of a feature with the gradient of the log likelihood.
+     * @param feature
+     * @param gradient
+     * @param rate the learning rate of the step
+     * @param step the number of the steps including this one
+     */
+    void updateWeight(int feature, double gradient, double rate, int step) {
+        switch (method) {
+        case SGD:
+            lambda[feature] += rate * gradient;
+            break;
+        case ADAGRAD:
+            firstMoments[feature] += gradient * gradient;
+            lambda[feature] += rate * gradient / (Math.sqrt(firstMoments[feature]) + EPSILON);
+            break;
+        case ADAM:
+            firstMoments[feature] = ADAM_BETA1 * firstMoments[feature] + (1.0 - ADAM_BETA1) * gradient;
+            secondMoments[feature] = ADAM_BETA2 * secondMoments[feature] + (1.0 - ADAM_BETA2) * gradient * gradient;
+            double firstMoment = firstMoments[feature] / (1.0 - Math.pow(ADAM_BETA1, step));
+            double secondMoment = secondMoments[feature] / (1.0 - Math.pow(ADAM_BETA2, step));
+            lambda[feature] += rate * firstMoment / (Math.sqrt(secondMoment) + EPSILON);
+            break;
+        }
+    }
+    
+    /**
+     * Applies the regularization that the feature has missed since the last application.
+     * @param feature
+     */
+    void applyPendingRegularization(int feature) {
+        if (useL1Regularization) {
+            double weight = lambda[feature];
+            if (weight > 0.0) {
+                lambda[feature] = Math.max(0.0, weight - (cumulativeRegularization + appliedRegularization[feature]));
+            } else if (weight < 0.0) {
+                lambda[feature] = Math.min(0.0, weight + (cumulativeRegularization - appliedRegularization[feature]));
+            }
+            appliedRegularization[feature] += lambda[feature] - weight;
+        } else {
+            lambda[feature] *= Math.exp(cumulativeRegularization - appliedRegularization[feature]);
+            appliedRegularization[feature] = cumulativeRegularization;
+        }
+    }
+    
+    /**
+     * Creates a buffer for the current thread and registers it so that its gradient can be gathered.
+     * @return
+     */
+    synchronized LatticeBuffer createLatticeBuffer() {
+        LatticeBuffer buffer = new LatticeBuffer();
+        buffer.ensureFeatureCapacity(numFeatures);
+        latticeBufferList.add(buffer);
+        return buffer;
+    }
+    
+    @Override
+    public Object compute(int taskID) {
+        PatternSetSequence seq = batch[taskID];
+        LatticeBuffer buffer = latticeBuffer.get();
+        seq.accumulateFeatureExpectation(featureExpWeights, buffer);
+        seq.addEmpiricalFeatureCounts(buffer);
+        return new LogLikelihood(seq.calcLogLikelihood(buffer));
+    }
+    
+    @Override
+    public int getNumTasks() {
+        return numBatchSequences;
+    }
+    
+    @Override
+    public synchronized int fetchCurrTaskID() {
+        if (curID < getNumTasks()) {
+            curID++;
+        }
+        return curID;
+    }
+    
+    @Override
+    public synchronized void update(Object partialResult) {
+        batchLogLikelihood.addLogLikelihood(((LogLikelihood)partialResult).getLogLikelihood());
+    }
+}
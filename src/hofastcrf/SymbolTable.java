@@ -0,0 +1,105 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.Arrays;
+
+/**
+ * The class that interns strings (the observation parts of the features) to consecutive integer IDs.
+ * Interning is synchronized, while lookups are lock-free and safe as long as no thread is interning at the same time.
+ * @author Hiroshi Manabe
+ */
+public class SymbolTable {
+    
+    private String[] symbols;
+    private int[] slots;  // ID + 1 for each slot, 0 for the empty slots
+    private int size;
+    
+    /**
+     * Constructor.
+     */
+    public SymbolTable() {
+        symbols = new String[16];
+        slots = new int[32];
+        size = 0;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Returns the string for the ID.
+     * @param id
+     * @return
+     */
+    public String get(int id) {
+        return symbols[id];
+    }
+    
+    /**
+     * Returns the ID of the string.
+     * @param symbol
+     * @return the ID, or -1 if the string has not been interned
+     */
+    public int lookup(String symbol) {
+        int slot = findSlot(symbol);
+        return slots[slot] - 1;
+    }
+    
+    /**
+     * Returns the ID of the string, assigning a new one if the string has not been interned yet.
+     * @param symbol
+     * @return
+     */
+    public synchronized int intern(String symbol) {
+        int slot = findSlot(symbol);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        if (size == symbols.length) {
+            symbols = Arrays.copyOf(symbols, size * 2);
+        }
+        int id = size++;
+        symbols[id] = symbol;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+    
+    private int findSlot(String symbol) {
+        int mask = slots.length - 1;
+        int slot = LongIntHashMap.hash(symbol.hashCode()) & mask;
+        while (slots[slot] != 0 && !symbols[slots[slot] - 1].equals(symbol)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        for (int id = 0; id < size; ++id) {
+            slots[findSlot(symbols[id])] = id + 1;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A session of the inference with a trained model.
+ *
+ * The index of the features, the exponentiated weights and the labels of the model are built once
+ * when the tagger is created, so the inference of each sequence only pays for its own lattice.
+ * The features of each observation are found through the inference index of the model (see InferenceIndex),
+ * which is compiled here if the model does not have one.
+ * With a quantized model (see HighOrderCRFData.quantize()), tag() without a beam decodes on the quantized weights,
+ * and the exponentiated weights for the other methods are dequantized when they are first needed.
+ * The tagger is immutable except for the lattice buffers, which are kept for each thread,
+ * so a tagger can be shared by the threads that handle the requests.
+ * @author Hiroshi Manabe
+ *
+ * @param <T> The class for the observations.
+ */
+public class Tagger<T> {
+    
+    final FeatureTemplateGenerator<T> generator;
+    final FeatureIndex featureIndex;
+    final InferenceIndex inferenceIndex;
+    final HighOrderCRFData modelData;
+    final QuantizedWeights quantizedWeights;  // null if the model is not quantized
+    private volatile double[] featureExpWeights;
+    final Map<String, Integer> labelMap;
+    final String[] labels;  // indexed by the label IDs
+    final int maxOrder;
+    final int beamSize;
+    final double beamThreshold;
+    final ThreadLocal<LatticeBuffer> latticeBuffer = ThreadLocal.withInitial(LatticeBuffer::new);
+    
+    /**
+     * Constructor of the tagger with the exact decoding.
+     * @param modelData the trained model
+     * @param generator the feature template generator used for the training
+     */
+    public Tagger(HighOrderCRFData modelData, FeatureTemplateGenerator<T> generator) {
+        this(modelData, generator, 0, Double.POSITIVE_INFINITY);
+    }
+    
+    /**
+     * Constructor.
+     * @param modelData the trained model
+     * @param generator the feature template generator used for the training
+     * @param beamSize the maximum number of the patterns kept at each position by tag(), or 0 for no limit
+     * (see PatternSetSequence.decode())
+     * @param beamThreshold the maximum difference of the log scores from the best one at each position,
+     * or Double.POSITIVE_INFINITY for no limit
+     */
+    public Tagger(HighOrderCRFData modelData, FeatureTemplateGenerator<T> generator, int beamSize, double beamThreshold) {
+        this.modelData = modelData.compile();
+        this.generator = generator;
+        this.labelMap = this.modelData.getLabelMap();
+        this.beamSize = beamSize;
+        this.beamThreshold = beamThreshold;
+        
+        featureIndex = this.modelData.createFeatureIndex();
+        inferenceIndex = this.modelData.getInferenceIndex();
+        quantizedWeights = this.modelData.getQuantizedWeights();
+        if (quantizedWeights == null) {
+            featureExpWeights = createFeatureExpWeights();
+        }
+        maxOrder = featureIndex.getMaxOrder();
+        
+        labels = new String[labelMap.size()];
+        for (Map.Entry<String, Integer> entry : labelMap.entrySet()) {
+            labels[entry.getValue()] = entry.getKey();
+        }
+    }
+    
+    private double[] createFeatureExpWeights() {
+        double[] weights = modelData.getWeights();
+        double[] expWeights = new double[weights.length];
+        for (int i = 0; i < weights.length; ++i) {
+            expWeights[i] = Math.exp(weights[i]);
+        }
+        return expWeights;
+    }
+    
+    /**
+     * Returns the exponentiated weights of the features, which are created on the first call for a quantized model.
+     * @return
+     */
+    double[] getFeatureExpWeights() {
+        double[] expWeights = featureExpWeights;
+        if (expWeights == null) {
+            synchronized (this) {
+                if (featureExpWeights == null) {
+                    featureExpWeights = createFeatureExpWeights();
+                }
+                expWeights = featureExpWeights;
+            }
+        }
+        return expWeights;
+    }
+    
+    /**
+     * Returns the labels of the model in the order of their IDs, which index the marginal probabilities.
+     * @return
+     */
+    public String[] getLabels() {
+        return labels.clone();
+    }
+    
+    /**
+     * Infers the labels of an observation sequence.
+     * @param observationSequence
+     * @return the predicted labels
+     */
+    public String[] tag(ObservationSequence<T> observationSequence) {
+        return tag(observationSequence, beamSize, beamThreshold);
+    }
+    
+    String[] tag(ObservationSequence<T> observationSequence, int beamSize, double beamThreshold) {
+        PatternSetSequence patternSetSequence = generatePatternSetSequence(observationSequence);
+        if (quantizedWeights != null && beamSize <= 0 && beamThreshold == Double.POSITIVE_INFINITY) {
+            return toStringLabels(patternSetSequence.decode(quantizedWeights, latticeBuffer.get()));
+        }
+        return toStringLabels(patternSetSequence.decode(getFeatureExpWeights(), latticeBuffer.get(), beamSize, beamThreshold));
+    }
+    
+    /**
+     * Infers the n best label sequences of an observation sequence, with their conditional probabilities.
+     * The beam is not used.
+     * @param observationSequence
+     * @param n the number of the label sequences
+     * @return
+     */
+    public NBestResult tagNBest(ObservationSequence<T> observationSequence, int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("The number of the label sequences must be positive: " + n);
+        }
+        PatternSetSequence patternSetSequence = generatePatternSetSequence(observationSequence);
+        double[] logProbabilities = new double[n];
+        int[][] nBestLabels = patternSetSequence.decodeNBest(getFeatureExpWeights(), latticeBuffer.get(), n, logProbabilities);
+        String[][] strLabelsArray = new String[nBestLabels.length][];
+        for (int k = 0; k < nBestLabels.length; ++k) {
+            strLabelsArray[k] = toStringLabels(nBestLabels[k]);
+        }
+        return new NBestResult(strLabelsArray, Arrays.copyOf(logProbabilities, nBestLabels.length));
+    }
+    
+    /**
+     * Computes the marginal probabilities of the labels at each position of an observation sequence.
+     * @param observationSequence
+     * @return the marginal probabilities indexed by the positions and the labels (see getLabels())
+     */
+    public double[][] marginals(ObservationSequence<T> observationSequence) {
+        PatternSetSequence patternSetSequence = generatePatternSetSequence(observationSequence);
+        return patternSetSequence.calcMarginals(getFeatureExpWeights(), latticeBuffer.get(), labels.length);
+    }
+    
+    /**
+     * Generates the lattice of an observation sequence with the features of the model.
+     * @param observationSequence
+     * @return
+     */
+    PatternSetSequence generatePatternSetSequence(ObservationSequence<T> observationSequence) {
+        List<T> observationList = observationSequence.getObservationList();
+        SymbolTable observationTable = featureIndex.getObservationTable();
+        LatticeBuilder builder = new LatticeBuilder(featureIndex, observationList.size());
+        for (int pos = 0; pos < observationList.size(); ++pos) {
+            for (FeatureTemplate template : generator.generateFeatureTemplatesAt(observationList, pos)) {
+                int order = template.getOrder();
+                if (order > pos + 1 || order > inferenceIndex.maxOrder) {
+                    continue;
+                }
+                int observation = inferenceIndex.lookup(template.getObservation(), observationTable);
+                if (observation < 0) {
+                    continue;
+                }
+                for (int feature = inferenceIndex.getStart(observation, order); feature < inferenceIndex.getEnd(observation, order); ++feature) {
+                    builder.addFeature(pos, feature);
+                }
+            }
+        }
+        return builder.build(null, maxOrder);
+    }
+    
+    String[] toStringLabels(int[] labelIDs) {
+        String[] strLabels = new String[labelIDs.length];
+        for (int i = 0; i < labelIDs.length; ++i) {
+            strLabels[i] = labels[labelIDs[i]];
+        }
+        return strLabels;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The pipeline that tags the observation sequences from a reader and writes them to a writer in the same order,
+ * without holding all the sequences.
+ *
+ * A reader thread reads the sequences in chunks, the decoding threads tag the chunks with the shared Tagger,
+ * and the calling thread writes the tagged chunks in the order of reading, keeping the ones that are finished early.
+ * At most maxPendingChunks chunks are read and not yet written at any time,
+ * so the memory use depends on the chunk size and not on the size of the input.
+ * @author Hiroshi Manabe
+ *
+ * @param <T> the class for the observations.
+ */
+public class TaggingPipeline<T> {
+    
+    final Tagger<T> tagger;
+    final int concurrency;
+    final int chunkSize;
+    final int maxPendingChunks;
+    
+    /**
+     * The sequences read at once, which are tagged by a decoding thread.
+     * A chunk without the sequences marks the end of the input, and its index is the number of the chunks.
+     */
+    class Chunk {
+        final long index;
+        final List<ObservationSequence<T>> observationSequenceList;
+        final String[][] labels;
+        
+        Chunk(long index, List<ObservationSequence<T>> observationSequenceList) {
+            this.index = index;
+            this.observationSequenceList = observationSequenceList;
+            this.labels = (observationSequenceList == null) ? null : new String[observationSequenceList.size()][];
+        }
+        
+        boolean isEnd() {
+            return observationSequenceList == null;
+        }
+    }
+    
+    /**
+     * Constructor.
+     * @param tagger the tagger of the model (see HighOrderFastCRF.getTagger())
+     * @param concurrency the number of the decoding threads
+     * @param chunkSize the number of the sequences read at once
+     * @param maxPendingChunks the maximum number of the chunks that are read and not yet written
+     */
+    public TaggingPipeline(Tagger<T> tagger, int concurrency, int chunkSize, int maxPendingChunks) {
+        this.tagger = tagger;
+        this.concurrency = Math.max(concurrency, 1);
+        this.chunkSize = Math.max(chunkSize, 1);
+        this.maxPendingChunks = Math.max(maxPendingChunks, this.concurrency);
+    }
+    
+    /**
+     * Tags all the sequences of the reader and writes them to the writer.
+     * The reader and the writer are not closed.
+     * @param reader
+     * @param writer
+     * @return the number of the sequences
+     * @throws IOException if the reader or the writer fails
+     * @throws InterruptedException
+     */
+    public long run(final SequenceReader<T> reader, SequenceWriter<T> writer) throws IOException, InterruptedException {
+        final Semaphore pendingChunks = new Semaphore(maxPendingChunks);
+        final LinkedBlockingQueue<Chunk> readQueue = new LinkedBlockingQueue<Chunk>();
+        final LinkedBlockingQueue<Chunk> taggedQueue = new LinkedBlockingQueue<Chunk>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        final Thread writerThread = Thread.currentThread();
+        
+        threads.add(new Thread(new Runnable() {
+            public void run() {
+                try {
+                    long index = 0;
+                    boolean isEnd = false;
+                    while (!isEnd) {
+                        pendingChunks.acquire();
+                        List<ObservationSequence<T>> observationSequenceList = new ArrayList<ObservationSequence<T>>(chunkSize);
+                        ObservationSequence<T> observationSequence = null;
+                        while (observationSequenceList.size() < chunkSize && (observationSequence = reader.read()) != null) {
+                            observationSequenceList.add(observationSequence);
+                        }
+                        isEnd = (observationSequence == null);
+                        if (observationSequenceList.isEmpty()) {
+                            pendingChunks.release();
+                        } else {
+                            readQueue.put(new Chunk(index++, observationSequenceList));
+                        }
+                    }
+                    Chunk endOfInput = new Chunk(index, null);
+                    for (int i = 0; i < concurrency; ++i) {
+                        readQueue.put(endOfInput);
+                    }
+                    taggedQueue.put(endOfInput);
+                } catch (Throwable e) {
+                    fail(e, failure, writerThread);
+                }
+            }
+        }, "TaggingPipeline reader"));
+        
+        for (int i = 0; i < concurrency; ++i) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (Chunk chunk = readQueue.take(); !chunk.isEnd(); chunk = readQueue.take()) {
+                            for (int j = 0; j < chunk.labels.length; ++j) {
+                                chunk.labels[j] = tagger.tag(chunk.observationSequenceList.get(j));
+                            }
+                            taggedQueue.put(chunk);
+                        }
+                    } catch (Throwable e) {
+                        fail(e, failure, writerThread);
+                    }
+                }
+            }, "TaggingPipeline decoder " + i));
+        }
+        
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        long numSequences = 0;
+        try {
+            Map<Long, Chunk> earlyChunks = new HashMap<Long, Chunk>();
+            long nextIndex = 0;
+            long numChunks = Long.MAX_VALUE;
+            while (nextIndex < numChunks) {
+                Chunk chunk = taggedQueue.take();
+                if (chunk.isEnd()) {
+                    numChunks = chunk.index;
+                    continue;
+                }
+                earlyChunks.put(chunk.index, chunk);
+                while ((chunk = earlyChunks.remove(nextIndex)) != null) {
+                    for (int j = 0; j < chunk.labels.length; ++j) {
+                        writer.write(chunk.observationSequenceList.get(j), chunk.labels[j]);
+                    }
+                    numSequences += chunk.labels.length;
+                    ++nextIndex;
+                    pendingChunks.release();
+                }
+            }
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            // stops the other threads, which may still be blocked in reading
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            if (!(e instanceof InterruptedException) || failure.compareAndSet(null, e)) {
+                throw e;
+            }
+            // interrupted by a failed thread, whose failure is thrown below
+        }
+        
+        Throwable e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException)e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException)e;
+        } else if (e instanceof Error) {
+            throw (Error)e;
+        } else if (e != null) {
+            throw new IOException(e);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return numSequences;
+    }
+    
+    /**
+     * Records the first failure of the threads and stops the writer.
+     */
+    static void fail(Throwable e, AtomicReference<Throwable> failure, Thread writerThread) {
+        if (failure.compareAndSet(null, e)) {
+            writerThread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import parallel.Scheduler;
+import parallel.WorkerPool;
+
+/**
+ * The local HTTP service that tags the sequences with a trained model.
+ *
+ * The service listens on the loopback address and handles the following requests:
+ * <pre>
+ * POST taggingPath   one sequence per line (see SequenceFormat), returns one formatted line for each
+ * POST /marginals    one sequence per line, returns the labels on the first line, followed by
+ *                    the marginal probabilities of the labels at each position (one line for each position,
+ *                    separated by tabs) and an empty line for each sequence
+ * GET  /stats        the counters of the requests, the latency percentiles and the throughput
+ * </pre>
+ * The sequences of the concurrent requests are coalesced into a batch, which is decoded in parallel by a Decoder
+ * with the shared Tagger. A batch is started when it has maxBatchSize sequences or when its first request
+ * has waited for maxDelayMillis, whichever comes first.
+ * @author Hiroshi Manabe
+ *
+ * @param <T> the class for the observations.
+ */
+public class TaggingService<T> implements Closeable {
+    
+    static final int NUM_LATENCIES = 8192;  // the number of the latest requests kept for the percentiles
+    
+    final Tagger<T> tagger;
+    final SequenceFormat<T> format;
+    final int maxBatchSize;
+    final long maxDelayNanos;
+    final HttpServer server;
+    final ExecutorService handlerExecutor;
+    final WorkerPool pool;
+    final Thread batcher;
+    final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+    volatile boolean isRunning = true;
+    
+    final long startNanos = System.nanoTime();
+    long numRequests = 0;
+    long numSequences = 0;
+    long numBatches = 0;
+    long numBatchedSequences = 0;
+    final long[] latencies = new long[NUM_LATENCIES];  // in nanoseconds, a ring buffer
+    
+    /**
+     * A request whose sequences are waiting for a batch.
+     */
+    class Request {
+        final List<ObservationSequence<T>> observationSequenceList;
+        final boolean isComputingMarginals;
+        final long arrivalNanos;
+        final CompletableFuture<String> response = new CompletableFuture<String>();
+        
+        Request(List<ObservationSequence<T>> observationSequenceList, boolean isComputingMarginals, long arrivalNanos) {
+            this.observationSequenceList = observationSequenceList;
+            this.isComputingMarginals = isComputingMarginals;
+            this.arrivalNanos = arrivalNanos;
+        }
+    }
+    
+    /**
+     * Constructor. The service starts at once.
+     * @param tagger the tagger of the model (see HighOrderFastCRF.getTagger())
+     * @param format the format of the sequences
+     * @param taggingPath the path of the tagging requests, such as "/tag"
+     * @param port the port on the loopback address, or 0 for any free port
+     * @param concurrency the number of the decoding threads
+     * @param maxBatchSize the maximum number of the sequences in a batch
+     * @param maxDelayMillis the maximum time that a request waits for the other requests of its batch
+     * @throws IOException
+     */
+    public TaggingService(Tagger<T> tagger, SequenceFormat<T> format, String taggingPath, int port,
+            int concurrency, int maxBatchSize, long maxDelayMillis) throws IOException {
+        this.tagger = tagger;
+        this.format = format;
+        this.maxBatchSize = Math.max(maxBatchSize, 1);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.pool = new WorkerPool(Math.max(concurrency, 1));
+        
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(taggingPath, exchange -> handleSequences(exchange, false));
+        server.createContext("/marginals", exchange -> handleSequences(exchange, true));
+        server.createContext("/stats", this::handleStats);
+        handlerExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(handlerExecutor);
+        
+        batcher = new Thread(this::runBatches, "TaggingService batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+        server.start();
+    }
+    
+    /**
+     * Returns the port that the service listens on.
+     * @return
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    /**
+     * Stops the service. The waiting requests are answered with an error.
+     */
+    @Override
+    public void close() {
+        isRunning = false;
+        server.stop(0);
+        batcher.interrupt();
+        try {
+            batcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Request request = queue.poll(); request != null; request = queue.poll()) {
+            request.response.completeExceptionally(new IOException("The service is stopped"));
+        }
+        handlerExecutor.shutdown();
+        pool.shutdown();
+    }
+    
+    void handleSequences(HttpExchange exchange, boolean isComputingMarginals) throws IOException {
+        long arrivalNanos = System.nanoTime();
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendResponse(exchange, 405, "Use POST\n");
+                return;
+            }
+            List<ObservationSequence<T>> observationSequenceList = new ArrayList<ObservationSequence<T>>();
+            try {
+                String body = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+                for (String line : body.split("\r?\n")) {
+                    if (!line.isEmpty()) {
+                        observationSequenceList.add(format.parse(line));
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, e.getMessage() + "\n");
+                return;
+            }
+            
+            Request request = new Request(observationSequenceList, isComputingMarginals, arrivalNanos);
+            queue.add(request);
+            String response;
+            try {
+                response = request.response.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sendResponse(exchange, 503, "Interrupted\n");
+                return;
+            } catch (ExecutionException e) {
+                sendResponse(exchange, 500, e.getCause() + "\n");
+                return;
+            }
+            sendResponse(exchange, 200, response);
+            recordRequest(observationSequenceList.size(), System.nanoTime() - arrivalNanos);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            sendResponse(exchange, 200, getStats());
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    /**
+     * Returns the counters of the service in lines of "name value".
+     * The latency of a request is the time from its arrival to its response, which includes the wait for its batch.
+     * The percentiles are those of the latest requests.
+     * @return
+     */
+    public synchronized String getStats() {
+        int numLatencies = (int)Math.min(numRequests, NUM_LATENCIES);
+        long[] sortedLatencies = Arrays.copyOf(latencies, numLatencies);
+        Arrays.sort(sortedLatencies);
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append("requests ").append(numRequests).append('\n');
+        sb.append("sequences ").append(numSequences).append('\n');
+        sb.append("batches ").append(numBatches).append('\n');
+        sb.append("mean_batch_size ").append((numBatches == 0) ? 0.0 : (double)numBatchedSequences / numBatches).append('\n');
+        sb.append("latency_p50_ms ").append(getPercentile(sortedLatencies, 0.50) / 1e6).append('\n');
+        sb.append("latency_p99_ms ").append(getPercentile(sortedLatencies, 0.99) / 1e6).append('\n');
+        sb.append("requests_per_second ").append(numRequests / seconds).append('\n');
+        sb.append("sequences_per_second ").append(numSequences / seconds).append('\n');
+        return sb.toString();
+    }
+    
+    private static long getPercentile(long[] sortedValues, double fraction) {
+        if (sortedValues.length == 0) {
+            return 0;
+        }
+        return sortedValues[Math.min((int)(fraction * sortedValues.length), sortedValues.length - 1)];
+    }
+    
+    synchronized void recordRequest(int numRequestSequences, long latencyNanos) {
+        latencies[(int)(numRequests % NUM_LATENCIES)] = latencyNanos;
+        ++numRequests;
+        numSequences += numRequestSequences;
+    }
+    
+    synchronized void recordBatch(int batchSize) {
+        ++numBatches;
+        numBatchedSequences += batchSize;
+    }
+    
+    /**
+     * Takes the requests from the queue in batches and decodes them, until the service is stopped.
+     */
+    void runBatches() {
+        List<Request> batch = new ArrayList<Request>();
+        while (isRunning) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                int batchSize = first.observationSequenceList.size();
+                long deadline = first.arrivalNanos + maxDelayNanos;
+                while (batchSize < maxBatchSize) {
+                    long wait = deadline - System.nanoTime();
+                    Request request = (wait > 0) ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (request == null) {
+                        break;
+                    }
+                    batch.add(request);
+                    batchSize += request.observationSequenceList.size();
+                }
+                decodeBatch(batch);
+                recordBatch(batchSize);
+            } catch (InterruptedException e) {
+                for (Request request : batch) {
+                    request.response.completeExceptionally(new IOException("The service is stopped"));
+                }
+                return;
+            } catch (RuntimeException e) {
+                for (Request request : batch) {
+                    request.response.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+    
+    /**
+     * Decodes the sequences of the requests together and completes their responses.
+     * @param batch
+     * @throws InterruptedException
+     */
+    void decodeBatch(List<Request> batch) throws InterruptedException {
+        List<ObservationSequence<T>> taggingList = new ArrayList<ObservationSequence<T>>();
+        List<ObservationSequence<T>> marginalsList = new ArrayList<ObservationSequence<T>>();
+        for (Request request : batch) {
+            (request.isComputingMarginals ? marginalsList : taggingList).addAll(request.observationSequenceList);
+        }
+        Decoder<T> taggingDecoder = new Decoder<T>(taggingList, tagger);
+        if (!taggingList.isEmpty()) {
+            new Scheduler(taggingDecoder, pool, Scheduler.DYNAMIC_NEXT_AVAILABLE).run();
+        }
+        Decoder<T> marginalsDecoder = new Decoder<T>(marginalsList, tagger);
+        if (!marginalsList.isEmpty()) {
+            marginalsDecoder.setComputingMarginals(true);
+            new Scheduler(marginalsDecoder, pool, Scheduler.DYNAMIC_NEXT_AVAILABLE).run();
+        }
+        
+        String[][] predictedLabels = taggingDecoder.getPredictedLabels();
+        double[][][] marginals = marginalsDecoder.getMarginals();
+        int taggingIndex = 0;
+        int marginalsIndex = 0;
+        for (Request request : batch) {
+            StringBuilder sb = new StringBuilder();
+            if (request.isComputingMarginals) {
+                sb.append(String.join("\t", tagger.labels)).append('\n');
+                for (int i = 0; i < request.observationSequenceList.size(); ++i) {
+                    for (double[] probabilities : marginals[marginalsIndex++]) {
+                        for (int label = 0; label < probabilities.length; ++label) {
+                            sb.append((label == 0) ? "" : "\t").append(probabilities[label]);
+                        }
+                        sb.append('\n');
+                    }
+                    sb.append('\n');
+                }
+            } else {
+                for (ObservationSequence<T> observationSequence : request.observationSequenceList) {
+                    sb.append(format.format(observationSequence, predictedLabels[taggingIndex++])).append('\n');
+                }
+            }
+            request.response.complete(sb.toString());
+        }
+    }
+    
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, length);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static void sendResponse(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
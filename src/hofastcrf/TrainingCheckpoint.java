@@ -0,0 +1,215 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * The class for the state of an unfinished training, from which the training can be resumed.
+ *
+ * A checkpoint keeps the features chosen by the feature counting with their empirical counts, so that
+ * the resumed training does not count the features again, and the state of the optimizer:
+ * the current weights, the number of the finished iterations and, for the stochastic trainer,
+ * the accumulated moments and the pending regularization.
+ * The QNMinimizer does not expose its memory, so a checkpoint of it keeps the weights and the number of the iterations
+ * at the end of an iteration, and the resumed minimizer builds its memory again from the weights.
+ *
+ * A checkpoint is saved in a versioned binary format (all numbers big-endian):
+ * <pre>
+ * int magic, int version
+ * int method, int maxOrder, int iteration, int step, double prevObjective, double cumulativeRegularization
+ * the features and the weights in the model format (see HighOrderCRFData)
+ * int[numFeatures] feature counts
+ * 3 x (int length, double[length]): the first moments, the second moments and the applied regularization
+ * </pre>
+ * The file is replaced atomically, so that a crash while saving leaves the previous checkpoint intact.
+ * @author Hiroshi Manabe
+ */
+public class TrainingCheckpoint {
+    
+    static final int MAGIC = 0x484f434b;  // "HOCK"
+    static final int VERSION = 1;
+    static final int QUASI_NEWTON = -1;  // the method of the QNMinimizer, the others are those of StochasticTrainer
+    
+    final HighOrderCRFData featureData;  // the weights of which are the current weights
+    final double[] weights;
+    final int[] featureCounts;
+    final int method;
+    final int maxOrder;
+    int iteration;  // the number of the finished epochs, or of the iterations of the QNMinimizer
+    int step;
+    double prevObjective = Double.NaN;
+    double cumulativeRegularization;
+    double[] firstMoments;
+    double[] secondMoments;
+    double[] appliedRegularization;
+    
+    private TrainingCheckpoint(HighOrderCRFData featureData, int[] featureCounts, int method, int maxOrder) {
+        this.featureData = featureData;
+        this.weights = featureData.getWeights();
+        this.featureCounts = featureCounts;
+        this.method = method;
+        this.maxOrder = maxOrder;
+    }
+    
+    /**
+     * Creates the checkpoint of a training that has not started yet, with all the weights set to 0.
+     * @param labelMap
+     * @param featureIndex
+     * @param featureCounts the counts of the features in the training data
+     * @param method QUASI_NEWTON or the method of the stochastic trainer
+     * @param maxOrder the maximum length of the feature labels
+     * @return
+     */
+    static TrainingCheckpoint create(Map<String, Integer> labelMap, FeatureIndex featureIndex, int[] featureCounts,
+            int method, int maxOrder) {
+        int numFeatures = featureIndex.getNumFeatures();
+        int[] features = new int[numFeatures];
+        for (int i = 0; i < numFeatures; ++i) {
+            features[i] = i;
+        }
+        HighOrderCRFData featureData = HighOrderCRFData.create(labelMap, featureIndex, features, new double[numFeatures]);
+        return new TrainingCheckpoint(featureData, featureCounts, method, maxOrder);
+    }
+    
+    /**
+     * Returns the number of the finished iterations.
+     * @return the number of the epochs, or of the iterations of the QNMinimizer
+     */
+    public int getIteration() {
+        return iteration;
+    }
+    
+    /**
+     * Saves the checkpoint.
+     * @param file
+     * @throws IOException
+     */
+    void write(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(method);
+            out.writeInt(maxOrder);
+            out.writeInt(iteration);
+            out.writeInt(step);
+            out.writeDouble(prevObjective);
+            out.writeDouble(cumulativeRegularization);
+            featureData.write(out);
+            for (int count : featureCounts) {
+                out.writeInt(count);
+            }
+            writeDoubles(out, firstMoments);
+            writeDoubles(out, secondMoments);
+            writeDoubles(out, appliedRegularization);
+        } finally {
+            out.close();
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        if (values == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+    
+    /**
+     * Reads a checkpoint saved by write().
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static TrainingCheckpoint read(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The checkpoint file is too large: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a checkpoint file: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+            }
+            int method = buffer.getInt();
+            int maxOrder = buffer.getInt();
+            int iteration = buffer.getInt();
+            int step = buffer.getInt();
+            double prevObjective = buffer.getDouble();
+            double cumulativeRegularization = buffer.getDouble();
+            HighOrderCRFData featureData = HighOrderCRFData.read(buffer, file.getPath());
+            int[] featureCounts = HighOrderCRFData.readInts(buffer, featureData.getNumFeatures());
+            
+            TrainingCheckpoint checkpoint = new TrainingCheckpoint(featureData, featureCounts, method, maxOrder);
+            checkpoint.iteration = iteration;
+            checkpoint.step = step;
+            checkpoint.prevObjective = prevObjective;
+            checkpoint.cumulativeRegularization = cumulativeRegularization;
+            checkpoint.firstMoments = readDoubles(buffer);
+            checkpoint.secondMoments = readDoubles(buffer);
+            checkpoint.appliedRegularization = readDoubles(buffer);
+            return checkpoint;
+        } finally {
+            channel.close();
+        }
+    }
+    
+    private static double[] readDoubles(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        return (length == 0) ? null : HighOrderCRFData.readDoubles(buffer, length);
+    }
+    
+    /**
+     * Sets the weights and saves the checkpoint, printing the error instead of stopping the training if it fails.
+     * @param lambda the current weights
+     * @param file
+     */
+    void save(double[] lambda, File file) {
+        if (lambda != weights) {
+            System.arraycopy(lambda, 0, weights, 0, weights.length);
+        }
+        try {
+            write(file);
+        } catch (IOException e) {
+            System.out.println("Failed to save the checkpoint " + file + ": " + e);
+        }
+    }
+}
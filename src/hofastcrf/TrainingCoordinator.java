@@ -0,0 +1,257 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import edu.stanford.nlp.optimization.DiffFunction;
+
+/**
+ * The coordinator of the distributed training, which drives the training workers (see TrainingWorker) over sockets.
+ * 
+ * The feature counts of the shards are merged into the tables of the coordinator, so that the workers
+ * agree on the feature numbers. Then the coordinator serves as the function for the QNMinimizer:
+ * for each weight vector, all the workers compute the log likelihood and the feature expectations of their shards
+ * at the same time, and the coordinator adds them up in the same way as Function does.
+ * @author Hiroshi Manabe
+ */
+public class TrainingCoordinator implements DiffFunction, Closeable {
+    
+    Socket[] sockets;
+    DataInputStream[] ins;
+    DataOutputStream[] outs;
+    int[] featureCountArray;
+    double regularizationCoefficientL2;
+    double logl;
+    double[] resultArray;
+    double[] lambdaCache;
+    
+    /**
+     * Constructor. Connects to all the workers.
+     * @param workerAddresses
+     * @throws IOException
+     */
+    public TrainingCoordinator(List<InetSocketAddress> workerAddresses) throws IOException {
+        int numWorkers = workerAddresses.size();
+        sockets = new Socket[numWorkers];
+        ins = new DataInputStream[numWorkers];
+        outs = new DataOutputStream[numWorkers];
+        try {
+            for (int i = 0; i < numWorkers; ++i) {
+                sockets[i] = new Socket(workerAddresses.get(i).getAddress(), workerAddresses.get(i).getPort());
+                sockets[i].setTcpNoDelay(true);
+                ins[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream(), 1 << 16));
+                outs[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream(), 1 << 16));
+                outs[i].writeInt(TrainingWorker.PROTOCOL_MAGIC);
+            }
+        } catch (IOException e) {
+            closeSockets();
+            throw e;
+        }
+    }
+    
+    /**
+     * Counts the features of all the shards and merges the counts.
+     * The labels are numbered in the order of the workers, so that the label IDs are the same as those
+     * of the training on a single process if the shards are consecutive parts of the training sequences.
+     * @param maxOrder
+     * @param minFeatureCounts the minimum counts (see DataSet.generateFeatureCountMap()), or null to keep all the features
+     * @param labelMap the map to which the labels are added
+     * @param observationTable the table to which the observations of the features are added
+     * @param labelSequenceTable the table to which the label sequences of the features are added
+     * @return the map from the feature keys (see FeatureIndex) to the counts
+     * @throws IOException
+     */
+    LongIntHashMap countFeatures(int maxOrder, int[] minFeatureCounts, Map<String, Integer> labelMap,
+            SymbolTable observationTable, LabelSequenceTable labelSequenceTable) throws IOException {
+        for (DataOutputStream out : outs) {
+            out.writeInt(TrainingWorker.COUNT_FEATURES);
+            out.writeInt(maxOrder);
+            out.flush();
+        }
+        LongIntHashMap featureCountMap = new LongIntHashMap();
+        for (DataInputStream in : ins) {
+            int[] labelIDs = new int[in.readInt()];
+            for (int label = 0; label < labelIDs.length; ++label) {
+                String labelString = TrainingWorker.readString(in);
+                if (!labelMap.containsKey(labelString)) {
+                    labelMap.put(labelString, labelMap.size());
+                }
+                labelIDs[label] = labelMap.get(labelString);
+            }
+            String[] shardObservations = new String[in.readInt()];
+            for (int j = 0; j < shardObservations.length; ++j) {
+                shardObservations[j] = TrainingWorker.readString(in);
+            }
+            
+            int numFeatures = in.readInt();
+            for (int j = 0; j < numFeatures; ++j) {
+                int observation = observationTable.intern(shardObservations[in.readInt()]);
+                int[] labels = new int[in.readInt()];
+                for (int k = 0; k < labels.length; ++k) {
+                    labels[k] = labelIDs[in.readInt()];
+                }
+                featureCountMap.addTo(FeatureIndex.packKey(observation, labelSequenceTable.intern(labels)), in.readInt());
+            }
+        }
+        if (minFeatureCounts == null) {
+            return featureCountMap;
+        }
+        LongIntHashMap ret = new LongIntHashMap();
+        for (long featureKey : featureCountMap.keys()) {
+            int count = featureCountMap.get(featureKey, 0);
+            int order = labelSequenceTable.getLength(FeatureIndex.getLow(featureKey));
+            if (count >= FeatureCounter.getMinFeatureCount(minFeatureCounts, order)) {
+                ret.put(featureKey, count);
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Sends the features to all the workers, which then build their lattices.
+     * @param labelMap
+     * @param featureIndex
+     * @param featureCountArray the counts of the features observed in the training set, indexed by the feature numbers
+     * @param regularizationCoefficientL2 set this parameter to 0.0 when using the L1 optimization
+     * @throws IOException
+     */
+    void setFeatures(Map<String, Integer> labelMap, FeatureIndex featureIndex, int[] featureCountArray,
+            double regularizationCoefficientL2) throws IOException {
+        this.featureCountArray = featureCountArray;
+        this.regularizationCoefficientL2 = regularizationCoefficientL2;
+        this.resultArray = new double[featureCountArray.length];
+        this.lambdaCache = null;
+        
+        HighOrderCRFData featureData = new HighOrderCRFData(labelMap, featureIndex.getObservationTable(), featureIndex.getLabelSequenceTable(),
+                featureIndex.featureObservations, featureIndex.featureLabelSequences, new double[featureIndex.getNumFeatures()]);
+        for (DataOutputStream out : outs) {
+            out.writeInt(TrainingWorker.SET_FEATURES);
+            TrainingWorker.writeModel(out, featureData);
+            out.flush();
+        }
+        int numSequences = 0;
+        for (DataInputStream in : ins) {
+            numSequences += in.readInt();
+        }
+        System.out.println("Generated " + numSequences + " PatternSetSequences on " + ins.length + " workers");
+    }
+    
+    @Override
+    public double valueAt(double[] lambda) {
+        if (!Arrays.equals(lambda, lambdaCache)) {
+            lambdaCache = lambda.clone();
+            computeValueAndDerivatives(lambda);
+        }
+        return logl;
+    }
+    
+    @Override
+    public double[] derivativeAt(double[] lambda) {
+        if (!Arrays.equals(lambda, lambdaCache)) {
+            lambdaCache = lambda.clone();
+            computeValueAndDerivatives(lambda);
+        }
+        return resultArray;
+    }
+    
+    /**
+     * Executes the computation on all the workers and updates the feature expectations and the log likelihood.
+     * @param lambda
+     */
+    public void computeValueAndDerivatives(double[] lambda) {
+        LogLikelihood logLikelihood = new LogLikelihood(0.0);
+        for (int i = 0; i < lambda.length; i++) {
+            resultArray[i] = featureCountArray[i];
+        }
+        
+        if (regularizationCoefficientL2 != 0.0) {
+            for (int i = 0; i < lambda.length; i++) {
+                logLikelihood.addLogLikelihood(-((lambda[i] * lambda[i]) * regularizationCoefficientL2) / 2);
+                resultArray[i] += -lambda[i] * regularizationCoefficientL2;
+            }
+        }
+        
+        try {
+            for (DataOutputStream out : outs) {
+                out.writeInt(TrainingWorker.EVALUATE);
+                TrainingWorker.writeDoubles(out, lambda);
+                out.flush();
+            }
+            for (DataInputStream in : ins) {
+                logLikelihood.addLogLikelihood(in.readDouble());
+                double[] expectations = TrainingWorker.readDoubles(in, lambda.length);
+                for (int i = 0; i < lambda.length; ++i) {
+                    resultArray[i] += expectations[i];
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lost a training worker", e);
+        }
+        logl = logLikelihood.getLogLikelihood();
+        
+        for (int i = 0; i < lambda.length; ++i) {
+            resultArray[i] = -resultArray[i];
+        }
+        logl = -logl;
+    }
+    
+    @Override
+    public int domainDimension() {
+        return featureCountArray.length;
+    }
+    
+    /**
+     * Shuts down all the workers.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            for (DataOutputStream out : outs) {
+                if (out != null) {
+                    out.writeInt(TrainingWorker.SHUTDOWN);
+                    out.flush();
+                }
+            }
+        } finally {
+            closeSockets();
+        }
+    }
+    
+    private void closeSockets() throws IOException {
+        for (Socket socket : sockets) {
+            if (socket != null) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package hofastcrf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import parallel.Scheduler;
+import parallel.WorkerPool;
+
+/**
+ * A worker process of the distributed training (see TrainingCoordinator).
+ * 
+ * The worker owns a shard of the training sequences. It counts the features of its shard for the coordinator,
+ * builds the lattices of its shard with the features chosen by the coordinator,
+ * and then computes the log likelihood and the feature expectations of its shard for each weight vector it receives.
+ * The worker serves one coordinator connection with the following commands (all numbers big-endian):
+ * <pre>
+ * COUNT_FEATURES int maxOrder
+ *   -> the counts of the features of the shard, with the label and observation IDs local to the worker:
+ *      int numLabels, numLabels x string (in the order of the label IDs),
+ *      int numObservations, numObservations x string (in the order of the observation IDs),
+ *      int numFeatures, numFeatures x (int observation ID, int length, int[length] labels, int count)
+ * SET_FEATURES int length, the model of the features to be used (the weights are ignored)
+ *   -> int number of the sequences
+ * EVALUATE double[numFeatures] weights
+ *   -> double log likelihood, double[numFeatures] feature expectations (negated, see LogLikelihoodComputer)
+ * SHUTDOWN
+ * </pre>
+ * A string is sent as int byteLength followed by its UTF-8 bytes.
+ * @author Hiroshi Manabe
+ *
+ * @param <T> The class for the observations.
+ */
+public class TrainingWorker<T> {
+    
+    static final int PROTOCOL_MAGIC = 0x484f4657;  // "HOFW"
+    static final int COUNT_FEATURES = 1;
+    static final int SET_FEATURES = 2;
+    static final int EVALUATE = 3;
+    static final int SHUTDOWN = 4;
+    
+    final List<ObservationSequence<T>> observationSequenceList;
+    final FeatureTemplateGenerator<T> featureTemplateGenerator;
+    final int concurrency;
+    int maxOrder;
+    List<PatternSetSequence> patternSetSequenceList;
+    double[] featureExpWeights;
+    LogLikelihoodComputer logLikelihoodComputer;
+    
+    /**
+     * Constructor.
+     * @param observationSequenceList the shard of the training sequences
+     * @param featureTemplateGenerator
+     * @param concurrency the number of the threads of this worker
+     */
+    public TrainingWorker(List<ObservationSequence<T>> observationSequenceList, FeatureTemplateGenerator<T> featureTemplateGenerator,
+            int concurrency) {
+        this.observationSequenceList = observationSequenceList;
+        this.featureTemplateGenerator = featureTemplateGenerator;
+        this.concurrency = concurrency;
+    }
+    
+    /**
+     * Waits for the coordinator on the port and serves it until it sends SHUTDOWN or disconnects.
+     * @param port
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void serve(int port) throws IOException, InterruptedException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        Socket socket;
+        try {
+            System.out.println("Waiting for the coordinator on port " + serverSocket.getLocalPort());
+            socket = serverSocket.accept();
+        } finally {
+            serverSocket.close();
+        }
+        WorkerPool pool = new WorkerPool(concurrency);
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            if (in.readInt() != PROTOCOL_MAGIC) {
+                throw new IOException("Not a training coordinator: " + socket.getRemoteSocketAddress());
+            }
+            while (true) {
+                int command = in.readInt();
+                if (command == COUNT_FEATURES) {
+                    maxOrder = in.readInt();
+                    countFeatures(out, pool);
+                } else if (command == SET_FEATURES) {
+                    setFeatures(readModel(in, socket.getRemoteSocketAddress().toString()), pool);
+                    out.writeInt(patternSetSequenceList.size());
+                } else if (command == EVALUATE) {
+                    double[] lambda = readDoubles(in, featureExpWeights.length);
+                    for (int i = 0; i < lambda.length; ++i) {
+                        featureExpWeights[i] = Math.exp(lambda[i]);
+                    }
+                    LogLikelihood logLikelihood = new LogLikelihood(0.0);
+                    logLikelihoodComputer.reset(logLikelihood);
+                    Scheduler sch = new Scheduler(logLikelihoodComputer, pool, Scheduler.DYNAMIC_NEXT_AVAILABLE);
+                    sch.run();
+                    double[] expectations = new double[featureExpWeights.length];
+                    logLikelihoodComputer.mergeFeatureExpectations(expectations);
+                    out.writeDouble(logLikelihood.getLogLikelihood());
+                    writeDoubles(out, expectations);
+                } else if (command == SHUTDOWN) {
+                    break;
+                } else {
+                    throw new IOException("Unknown command: " + command);
+                }
+                out.flush();
+            }
+        } finally {
+            pool.shutdown();
+            socket.close();
+        }
+    }
+    
+    /**
+     * Counts the features of the shard and writes the counts with the IDs local to this worker (see COUNT_FEATURES).
+     * @param out
+     * @param pool
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    void countFeatures(DataOutputStream out, WorkerPool pool) throws IOException, InterruptedException {
+        ObservationSet<T> observationSet = new ObservationSet<T>(observationSequenceList);
+        Map<String, Integer> labelMap = observationSet.generateLabelMap();
+        SymbolTable observationTable = new SymbolTable();
+        LabelSequenceTable labelSequenceTable = new LabelSequenceTable();
+        DataSet dataSet = observationSet.generateDataSet(featureTemplateGenerator, labelMap, maxOrder, observationTable, pool);
+        LongIntHashMap featureCountMap = dataSet.generateFeatureCountMap(labelSequenceTable, pool);
+        
+        Map<Integer, String> reversedLabelMap = HighOrderCRFData.createReversedLabelMap(labelMap);
+        out.writeInt(reversedLabelMap.size());
+        for (int i = 0; i < reversedLabelMap.size(); ++i) {
+            writeString(out, reversedLabelMap.get(i));
+        }
+        out.writeInt(observationTable.size());
+        for (int i = 0; i < observationTable.size(); ++i) {
+            writeString(out, observationTable.get(i));
+        }
+        long[] featureKeys = featureCountMap.keys();
+        out.writeInt(featureKeys.length);
+        for (long featureKey : featureKeys) {
+            int[] labels = labelSequenceTable.getLabels(FeatureIndex.getLow(featureKey));
+            out.writeInt(FeatureIndex.getHigh(featureKey));
+            out.writeInt(labels.length);
+            for (int label : labels) {
+                out.writeInt(label);
+            }
+            out.writeInt(featureCountMap.get(featureKey, 0));
+        }
+    }
+    
+    /**
+     * Builds the lattices of the shard with the features chosen by the coordinator.
+     * The data set is generated again with the label and observation IDs of the coordinator.
+     * @param featureData
+     * @param pool
+     * @throws InterruptedException
+     */
+    void setFeatures(HighOrderCRFData featureData, WorkerPool pool) throws InterruptedException {
+        FeatureIndex featureIndex = featureData.createFeatureIndex();
+        ObservationSet<T> observationSet = new ObservationSet<T>(observationSequenceList);
+        DataSet dataSet = observationSet.generateDataSet(featureTemplateGenerator, featureData.getLabelMap(), maxOrder,
+                featureIndex.getObservationTable(), pool);
+        patternSetSequenceList = dataSet.generatePatternSetSequenceList(featureIndex, pool);
+        featureExpWeights = new double[featureIndex.getNumFeatures()];
+        logLikelihoodComputer = new LogLikelihoodComputer(patternSetSequenceList, featureExpWeights);
+    }
+    
+    /**
+     * Writes a model with its length in bytes.
+     * @param out
+     * @param modelData
+     * @throws IOException
+     */
+    static void writeModel(DataOutputStream out, HighOrderCRFData modelData) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        modelData.write(new DataOutputStream(bytes));
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+    
+    /**
+     * Reads a model written by writeModel().
+     * @param in
+     * @param name the name of the peer for the error messages
+     * @return
+     * @throws IOException
+     */
+    static HighOrderCRFData readModel(DataInputStream in, String name) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return HighOrderCRFData.read(ByteBuffer.wrap(bytes), name);
+    }
+    
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+        buffer.asDoubleBuffer().put(values);
+        out.write(buffer.array());
+    }
+    
+    static double[] readDoubles(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length * 8];
+        in.readFully(bytes);
+        double[] ret = new double[length];
+        ByteBuffer.wrap(bytes).asDoubleBuffer().get(ret);
+        return ret;
+    }
+}
@@ -34,6 +34,7 @@ import hofastcrf.FeatureTemplateGenerator;
 import hofastcrf.HighOrderFastCRF;
 import hofastcrf.ObservationSequence;
 import hofastcrf.Scorer;
+import hofastcrf.SequenceReader;
 import hofastcrf.UnconditionalFeatureTemplateGenerator;
 
 /**
@@ -55,52 +56,73 @@ public class OCR {
     }
 
     public List<ObservationSequence<CharDetails>> readTagged(String filename, int trainFold, boolean isTraining) throws IOException {
-        BufferedReader in = new BufferedReader(new FileReader(filename));
-
-        List<ObservationSequence<CharDetails>> td = new ArrayList<ObservationSequence<CharDetails>>();
-        List<CharDetails> inps = new ArrayList<CharDetails>();
-        List<String> labels = new ArrayList<String>();
-        String line;
-
-        while ((line = in.readLine()) != null) {
-            if (line.length() > 0) {
-                StringTokenizer toks = new StringTokenizer(line);
-                
-                toks.nextToken();
-                String tagChar = toks.nextToken();
-                int nextID = Integer.parseInt(toks.nextToken());
-                toks.nextToken();
-                toks.nextToken();
-                int fold = Integer.parseInt(toks.nextToken());
-                
-                int[][] p = new int[CharDetails.ROWS][CharDetails.COLS];
-                for (int r = 0; r < CharDetails.ROWS; r++) {
-                    for (int c = 0; c < CharDetails.COLS; c++) {
-                        p[r][c] = Integer.parseInt(toks.nextToken());
-                    }
-                }
-
-                if (isTraining && fold == trainFold) {
-                    inps.add(new CharDetails(p));
-                    labels.add(tagChar);
-                } else if (!isTraining && fold != trainFold) {
-                    inps.add(new CharDetails(p));
-                    labels.add(tagChar);
-                }
+        SequenceReader<CharDetails> reader = openTagged(filename, trainFold, isTraining);
+        try {
+            return reader.readAll();
+        } finally {
+            reader.close();
+        }
+    }
 
-                if (nextID == -1 && labels.size() > 0) {
-                    td.add(new ObservationSequence<CharDetails>(inps, labels, true));
-                    inps = new ArrayList<CharDetails>();
-                    labels = new ArrayList<String>();
+    /**
+     * Opens the data file to read the words of the folds one by one.
+     * @param filename
+     * @param trainFold
+     * @param isTraining true to read the words of trainFold, false to read those of the other folds
+     * @return
+     * @throws IOException
+     */
+    public SequenceReader<CharDetails> openTagged(String filename, final int trainFold, final boolean isTraining) throws IOException {
+        final BufferedReader in = new BufferedReader(new FileReader(filename));
+        return new SequenceReader<CharDetails>() {
+            @Override
+            public ObservationSequence<CharDetails> read() throws IOException {
+                List<CharDetails> inps = new ArrayList<CharDetails>();
+                List<String> labels = new ArrayList<String>();
+                String line;
+
+                while ((line = in.readLine()) != null) {
+                    if (line.length() > 0) {
+                        StringTokenizer toks = new StringTokenizer(line);
+                        
+                        toks.nextToken();
+                        String tagChar = toks.nextToken();
+                        int nextID = Integer.parseInt(toks.nextToken());
+                        toks.nextToken();
+                        toks.nextToken();
+                        int fold = Integer.parseInt(toks.nextToken());
+                        
+                        int[][] p = new int[CharDetails.ROWS][CharDetails.COLS];
+                        for (int r = 0; r < CharDetails.ROWS; r++) {
+                            for (int c = 0; c < CharDetails.COLS; c++) {
+                                p[r][c] = Integer.parseInt(toks.nextToken());
+                            }
+                        }
+
+                        if (isTraining && fold == trainFold) {
+                            inps.add(new CharDetails(p));
+                            labels.add(tagChar);
+                        } else if (!isTraining && fold != trainFold) {
+                            inps.add(new CharDetails(p));
+                            labels.add(tagChar);
+                        }
+
+                        if (nextID == -1 && labels.size() > 0) {
+                            return new ObservationSequence<CharDetails>(inps, labels, true);
+                        }
+                    }
                 }
+                return null;
             }
-        }
 
-        in.close();
-        return td;
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
     }
     
-    public void train() throws IOException {
+    public void train() throws IOException, InterruptedException {
         HighOrderFastCRF<CharDetails> highOrderCrfModel; // High-order CRF model
         
         // Set training file name and create output directory
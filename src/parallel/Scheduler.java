@@ -38,6 +38,7 @@ public class Scheduler {
     int nThreads;
     int policy = 0;
     TaskThread[] threads;
+    WorkerPool pool = null;
 
     public Scheduler(Schedulable task, int nThreads, int policy) {
         this.policy = policy;
@@ -65,6 +66,17 @@ public class Scheduler {
         }
     }
 
+    /**
+     * Constructs a scheduler that runs the task on the threads of the given pool instead of creating new threads.
+     * @param task
+     * @param pool
+     * @param policy
+     */
+    public Scheduler(Schedulable task, WorkerPool pool, int policy) {
+        this(task, pool.getNumThreads(), policy);
+        this.pool = pool;
+    }
+
     public int fetchTaskID(int threadID) { // no need to synchronize
         if (policy == DYNAMIC_UNIFORM_ALLOCATE) {
             if (curIDs == null) {
@@ -85,11 +97,17 @@ public class Scheduler {
     }
 
     public void run() throws InterruptedException  {
+        if (pool != null) {
+            pool.execute(threads);
+            return;
+        }
+        Thread[] runningThreads = new Thread[nThreads];
         for (int i = 0; i < nThreads; i++) {
-            threads[i].start();
+            runningThreads[i] = new Thread(threads[i]);
+            runningThreads[i].start();
         }
         for (int i = 0; i < nThreads; i++) {
-            threads[i].join();
+            runningThreads[i].join();
         }
     }
     
@@ -22,9 +22,10 @@ package parallel;
 
 /**
  * Class for one task
+ * The worker is run either on its own thread or on a thread of a WorkerPool.
  * @author Ye Nan
  */
-class TaskThread extends Thread {
+class TaskThread implements Runnable {
 
     int id;
     Schedulable task;
@@ -0,0 +1,86 @@
+/*
+Copyright (C) 2014 Hiroshi Manabe
+Copyright (C) 2012 Nguyen Viet Cuong, Ye Nan, Sumit Bhagwani
+
+This file is part of HOFastCRF, which is based on HOSemiCRF.
+
+HOFastCRF is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOFastCRF is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of long-lived worker threads that can be shared by many schedulers.
+ * The threads survive between the runs, so thread-local data kept by the tasks is reused.
+ * @author Hiroshi Manabe
+ */
+public class WorkerPool {
+
+    private final int nThreads;
+    private final ExecutorService executor;
+
+    public WorkerPool(int nThreads) {
+        this.nThreads = nThreads;
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, "worker-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getNumThreads() {
+        return nThreads;
+    }
+
+    /**
+     * Runs the workers on the pool threads and waits for all of them to finish.
+     * @param workers
+     * @throws InterruptedException
+     */
+    void execute(Runnable[] workers) throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (Runnable worker : workers) {
+            futures.add(executor.submit(worker));
+        }
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new RuntimeException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Stops the threads after the running tasks are finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
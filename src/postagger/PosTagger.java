@@ -21,10 +21,13 @@ along with HOFastCRF. If not, see <http://www.gnu.org/licenses/>.
 package postagger;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import hofastcrf.AggregatedFeatureTemplateGenerator;
@@ -32,6 +35,10 @@ import hofastcrf.FeatureTemplateGenerator;
 import hofastcrf.HighOrderFastCRF;
 import hofastcrf.ObservationSequence;
 import hofastcrf.Scorer;
+import hofastcrf.SequenceFormat;
+import hofastcrf.SequenceReader;
+import hofastcrf.SequenceWriter;
+import hofastcrf.TaggingService;
 import hofastcrf.UnconditionalFeatureTemplateGenerator;
 import postagger.features.PrefixSuffixFeatureTemplateGenerator;
 import postagger.features.WordRangeFeatureTemplateGenerator;
@@ -55,34 +62,86 @@ public class PosTagger {
     }
 
     public List<ObservationSequence<String>> readData(String filename, boolean hasValidLabels) throws IOException {
-        BufferedReader in = new BufferedReader(new FileReader(filename));
-
-        List<ObservationSequence<String>> observationSequenceList = new ArrayList<ObservationSequence<String>>();
-        List<String> observationList = new ArrayList<String>();
-        List<String> labelList = new ArrayList<String>();
-        String line;
-
-        while ((line = in.readLine()) != null) {
-            if (line.isEmpty()) {
-                ObservationSequence<String> observationSequence = new ObservationSequence<String>(observationList, labelList, hasValidLabels);
-                observationSequenceList.add(observationSequence);
-                observationList = new ArrayList<String>();
-                labelList = new ArrayList<String>();
-                continue;
+        SequenceReader<String> reader = openData(filename, hasValidLabels);
+        try {
+            return reader.readAll();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Opens the data file with one word and its tag per line and an empty line after each sentence,
+     * to read the sentences one by one.
+     * @param filename
+     * @param hasValidLabels
+     * @return
+     * @throws IOException
+     */
+    public SequenceReader<String> openData(String filename, final boolean hasValidLabels) throws IOException {
+        final BufferedReader in = new BufferedReader(new FileReader(filename));
+        return new SequenceReader<String>() {
+            @Override
+            public ObservationSequence<String> read() throws IOException {
+                List<String> observationList = new ArrayList<String>();
+                List<String> labelList = new ArrayList<String>();
+                String line;
+
+                while ((line = in.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        return new ObservationSequence<String>(observationList, labelList, hasValidLabels);
+                    }
+                    String[] elements = line.split(" ", -1);
+                    if (elements.length < 2) {
+                        continue;
+                    }
+                    observationList.add(elements[0]);
+                    labelList.add(elements[1]);
+                }
+                return null;
             }
-            String[] elements = line.split(" ", -1);
-            if (elements.length < 2) {
-                continue;
+
+            @Override
+            public void close() throws IOException {
+                in.close();
             }
-            observationList.add(elements[0]);
-            labelList.add(elements[1]);
-        }
+        };
+    }
 
-        in.close();
-        return observationSequenceList;
+    /**
+     * Returns the format of one sentence of space-separated words per line,
+     * which is output with the words with their tags in the form of "word/TAG".
+     * @return
+     */
+    public SequenceFormat<String> createFormat() {
+        return new SequenceFormat<String>() {
+            @Override
+            public ObservationSequence<String> parse(String line) {
+                List<String> observationList = new ArrayList<String>();
+                for (String word : line.trim().split(" +")) {
+                    if (!word.isEmpty()) {
+                        observationList.add(word);
+                    }
+                }
+                if (observationList.isEmpty()) {
+                    throw new IllegalArgumentException("No words: " + line);
+                }
+                return new ObservationSequence<String>(observationList, Collections.<String>emptyList(), false);
+            }
+            
+            @Override
+            public String format(ObservationSequence<String> observationSequence, String[] labels) {
+                StringBuilder sb = new StringBuilder();
+                List<String> words = observationSequence.getObservationList();
+                for (int i = 0; i < words.size(); ++i) {
+                    sb.append((i == 0) ? "" : " ").append(words.get(i)).append('/').append(labels[i]);
+                }
+                return sb.toString();
+            }
+        };
     }
     
-    public void train() throws IOException {
+    public void train() throws IOException, InterruptedException {
     
         // Set training file name and create output directory
         String trainFilename = "train.txt";
@@ -125,6 +184,120 @@ public class PosTagger {
         System.out.println("done in " + (System.currentTimeMillis() - startTime) + " ms");
     }
 
+    /**
+     * Quantizes the weights of the trained model (see HighOrderFastCRF.quantize()), saves it to
+     * learntModels/crfmodel.q8 or learntModels/crfmodel.q16, and compares it with the full-precision model
+     * (see compareModels()).
+     * @param bits 8 or 16
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void quantize(int bits) throws IOException, InterruptedException {
+        String modelFilename = "learntModels/crfmodel";
+        String quantizedModelFilename = modelFilename + ".q" + bits;
+        HighOrderFastCRF<String> quantizedModel = new HighOrderFastCRF<String>(false);
+        quantizedModel.read(modelFilename);
+        quantizedModel.quantize(bits);
+        quantizedModel.write(quantizedModelFilename);
+        compareModels(modelFilename, quantizedModelFilename, "quantized");
+    }
+
+    /**
+     * Removes the features of small weights from the trained model (see HighOrderFastCRF.prune()), saves it to
+     * learntModels/crfmodel.pruned, and compares it with the original model (see compareModels()).
+     * @param minAbsWeight the features whose absolute weights are smaller than this are removed
+     * @param maxFeaturesPerOrder the maximum numbers of the features kept for each order, 0 for no limit
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void prune(double minAbsWeight, int... maxFeaturesPerOrder) throws IOException, InterruptedException {
+        String modelFilename = "learntModels/crfmodel";
+        String prunedModelFilename = modelFilename + ".pruned";
+        HighOrderFastCRF<String> prunedModel = new HighOrderFastCRF<String>(false);
+        prunedModel.read(modelFilename);
+        prunedModel.prune(minAbsWeight, maxFeaturesPerOrder);
+        prunedModel.write(prunedModelFilename);
+        compareModels(modelFilename, prunedModelFilename, "pruned");
+    }
+
+    /**
+     * Reads the original model and the model transformed from it, prints the sizes of their files,
+     * and compares the labels of the test data predicted with the transformed model
+     * against the true labels and those predicted with the original model.
+     * @param modelFilename the file of the original model
+     * @param transformedModelFilename the file of the transformed model
+     * @param transformation the name of the transformation in the messages, e.g. "quantized"
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    void compareModels(String modelFilename, String transformedModelFilename, String transformation)
+            throws IOException, InterruptedException {
+        HighOrderFastCRF<String> originalModel = new HighOrderFastCRF<String>(false);
+        originalModel.read(modelFilename);
+        HighOrderFastCRF<String> transformedModel = new HighOrderFastCRF<String>(false);
+        transformedModel.read(transformedModelFilename);
+        System.out.println("Model size: " + new File(modelFilename).length() + " bytes, " + transformation + ": "
+                + new File(transformedModelFilename).length() + " bytes (" + transformedModelFilename + ")");
+        
+        String testFilename = "test.txt";
+        List<ObservationSequence<String>> testDataSequenceList = readData(testFilename, false);
+        String[][] trueLabels = originalModel.extractLabels(testDataSequenceList);
+        long startTime = System.currentTimeMillis();
+        String[][] originalLabels = originalModel.decode(testDataSequenceList, featureGenerator, 4);
+        System.out.println("Original: decoded in " + (System.currentTimeMillis() - startTime) + " ms");
+        new Scorer(trueLabels, originalLabels, false).tokenScore();
+        startTime = System.currentTimeMillis();
+        String[][] transformedLabels = transformedModel.decode(testDataSequenceList, featureGenerator, 4);
+        System.out.println(Character.toUpperCase(transformation.charAt(0)) + transformation.substring(1)
+                + ": decoded in " + (System.currentTimeMillis() - startTime) + " ms");
+        new Scorer(trueLabels, transformedLabels, false).tokenScore();
+        System.out.println("Agreement of the " + transformation + " model with the original model:");
+        new Scorer(originalLabels, transformedLabels, false).tokenScore();
+    }
+    
+    /**
+     * Tags a file of one sentence of space-separated words per line and writes the words with their tags
+     * in the form of "word/TAG", reading and writing the sentences one by one (see TaggingPipeline).
+     * @param inputFilename
+     * @param outputFilename
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void tag(String inputFilename, String outputFilename) throws IOException, InterruptedException {
+        HighOrderFastCRF<String> highOrderCRFModel = new HighOrderFastCRF<String>(false);
+        highOrderCRFModel.read("learntModels/crfmodel");
+        
+        SequenceFormat<String> format = createFormat();
+        SequenceReader<String> reader = format.createReader(new BufferedReader(new FileReader(inputFilename)));
+        SequenceWriter<String> writer = format.createWriter(new BufferedWriter(new FileWriter(outputFilename)));
+        long startTime = System.currentTimeMillis();
+        try {
+            long numSequences = highOrderCRFModel.decode(reader, writer, featureGenerator, 4);
+            System.out.println("Tagged " + numSequences + " sentences in " + (System.currentTimeMillis() - startTime) + " ms");
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
+    /**
+     * Serves the tagging requests on the local port (see TaggingService).
+     * A request has one sentence of space-separated words per line, and the response has the words with their tags
+     * in the form of "word/TAG".
+     * @param port
+     * @return the running service
+     * @throws IOException
+     */
+    public TaggingService<String> serve(int port) throws IOException {
+        HighOrderFastCRF<String> highOrderCRFModel = new HighOrderFastCRF<String>(false);
+        highOrderCRFModel.read("learntModels/crfmodel");
+        
+        TaggingService<String> service = new TaggingService<String>(highOrderCRFModel.getTagger(featureGenerator), createFormat(),
+                "/tag", port, 4, 64, 5);
+        System.out.println("Serving on http://localhost:" + service.getPort() + "/tag");
+        return service;
+    }
+
     public static void main(String argv[]) throws Exception {
         PosTagger posTagger = new PosTagger();
         if (argv[0].toLowerCase().equals("all")) {
@@ -134,6 +307,18 @@ public class PosTagger {
             posTagger.train();
         } else if (argv[0].toLowerCase().equals("test")) {
             posTagger.test();
+        } else if (argv[0].toLowerCase().equals("quantize")) {
+            posTagger.quantize((argv.length > 1) ? Integer.parseInt(argv[1]) : 8);
+        } else if (argv[0].toLowerCase().equals("prune")) {
+            int[] maxFeaturesPerOrder = new int[Math.max(argv.length - 2, 0)];
+            for (int i = 0; i < maxFeaturesPerOrder.length; ++i) {
+                maxFeaturesPerOrder[i] = Integer.parseInt(argv[i + 2]);
+            }
+            posTagger.prune((argv.length > 1) ? Double.parseDouble(argv[1]) : 0.01, maxFeaturesPerOrder);
+        } else if (argv[0].toLowerCase().equals("tag")) {
+            posTagger.tag(argv[1], argv[2]);
+        } else if (argv[0].toLowerCase().equals("serve")) {
+            posTagger.serve((argv.length > 1) ? Integer.parseInt(argv[1]) : 8080);
         }
     }
 }
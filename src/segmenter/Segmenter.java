@@ -8,6 +8,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import segmenter.features.CharacterFeatureGenerator;
@@ -17,6 +18,10 @@ import hofastcrf.FeatureTemplateGenerator;
 import hofastcrf.HighOrderFastCRF;
 import hofastcrf.ObservationSequence;
 import hofastcrf.Scorer;
+import hofastcrf.SequenceFormat;
+import hofastcrf.SequenceReader;
+import hofastcrf.SequenceWriter;
+import hofastcrf.TaggingService;
 import hofastcrf.UnconditionalFeatureTemplateGenerator;
 
 public class Segmenter {
@@ -34,39 +39,96 @@ public class Segmenter {
     }
 
     public List<ObservationSequence<UnicodeCharacter>> readData(String filename, boolean hasValidLabels) throws IOException {
-        BufferedReader in = new BufferedReader(new FileReader(filename));
+        SequenceReader<UnicodeCharacter> reader = openData(filename, hasValidLabels);
+        try {
+            return reader.readAll();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Opens the data file with one segmented sentence per line, to read the sentences one by one.
+     * @param filename
+     * @param hasValidLabels
+     * @return
+     * @throws IOException
+     */
+    public SequenceReader<UnicodeCharacter> openData(String filename, final boolean hasValidLabels) throws IOException {
+        final BufferedReader in = new BufferedReader(new FileReader(filename));
+        return new SequenceReader<UnicodeCharacter>() {
+            @Override
+            public ObservationSequence<UnicodeCharacter> read() throws IOException {
+                String line = in.readLine();
+                if (line == null) {
+                    return null;
+                }
+                List<UnicodeCharacter> observationList = new ArrayList<UnicodeCharacter>();
+                List<String> labelList = new ArrayList<String>();
+                String[] elements = line.split(" ", -1);
+                String prevIsSpace = "1";
+                
+                for (String element : elements) {
+                    int length = element.length();
+                    UnicodeCharacter uchar;
+                    for (int i = 0; i < length; i += Character.charCount(uchar.getCodePoint())) {
+                        uchar = new UnicodeCharacter(element.codePointAt(i));
+                        if (uchar.getCodePoint() == '/') {
+                            break;
+                        }
+                        observationList.add(uchar);
+                        labelList.add(prevIsSpace);
+                        prevIsSpace = "0";
+                    }
+                    prevIsSpace = "1";
+                }
+                return new ObservationSequence<UnicodeCharacter>(observationList, labelList, hasValidLabels);
+            }
 
-        List<ObservationSequence<UnicodeCharacter>> ObservationSequenceList = new ArrayList<ObservationSequence<UnicodeCharacter>>();
-        String line;
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
 
-        while ((line = in.readLine()) != null) {
-            List<UnicodeCharacter> observationList = new ArrayList<UnicodeCharacter>();
-            List<String> labelList = new ArrayList<String>();
-            String[] elements = line.split(" ", -1);
-            String prevIsSpace = "1";
+    /**
+     * Returns the format of one unsegmented sentence per line,
+     * which is output with the words separated by spaces.
+     * @return
+     */
+    public SequenceFormat<UnicodeCharacter> createFormat() {
+        return new SequenceFormat<UnicodeCharacter>() {
+            @Override
+            public ObservationSequence<UnicodeCharacter> parse(String line) {
+                List<UnicodeCharacter> observationList = new ArrayList<UnicodeCharacter>();
+                for (int i = 0; i < line.length(); i += Character.charCount(line.codePointAt(i))) {
+                    if (!Character.isWhitespace(line.codePointAt(i))) {
+                        observationList.add(new UnicodeCharacter(line.codePointAt(i)));
+                    }
+                }
+                if (observationList.isEmpty()) {
+                    throw new IllegalArgumentException("No characters: " + line);
+                }
+                return new ObservationSequence<UnicodeCharacter>(observationList, Collections.<String>emptyList(), false);
+            }
             
-            for (String element : elements) {
-                int length = element.length();
-                UnicodeCharacter uchar;
-                for (int i = 0; i < length; i += Character.charCount(uchar.getCodePoint())) {
-                    uchar = new UnicodeCharacter(element.codePointAt(i));
-                    if (uchar.getCodePoint() == '/') {
-                        break;
+            @Override
+            public String format(ObservationSequence<UnicodeCharacter> observationSequence, String[] labels) {
+                StringBuilder sb = new StringBuilder();
+                List<UnicodeCharacter> seq = observationSequence.getObservationList();
+                for (int j = 0; j < seq.size(); ++j) {
+                    if (j > 0 && labels[j].equals("1")) {
+                        sb.append(" ");
                     }
-                    observationList.add(uchar);
-                    labelList.add(prevIsSpace);
-                    prevIsSpace = "0";
+                    sb.appendCodePoint(seq.get(j).getCodePoint());
                 }
-                prevIsSpace = "1";
+                return sb.toString();
             }
-            ObservationSequenceList.add(new ObservationSequence<UnicodeCharacter>(observationList, labelList, hasValidLabels));
-        }
-
-        in.close();
-        return ObservationSequenceList;
+        };
     }
     
-    public void train() throws IOException {
+    public void train() throws IOException, InterruptedException {
     
         // Set training file name and create output directory
         String trainFilename = "train_without_dev.full";
@@ -123,6 +185,119 @@ public class Segmenter {
         out.close();
     }
 
+    /**
+     * Quantizes the weights of the trained model (see HighOrderFastCRF.quantize()), saves it to
+     * learntModels/crfmodel.q8 or learntModels/crfmodel.q16, and compares it with the full-precision model
+     * (see compareModels()).
+     * @param bits 8 or 16
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void quantize(int bits) throws IOException, InterruptedException {
+        String modelFilename = "learntModels/crfmodel";
+        String quantizedModelFilename = modelFilename + ".q" + bits;
+        HighOrderFastCRF<UnicodeCharacter> quantizedModel = new HighOrderFastCRF<UnicodeCharacter>(false);
+        quantizedModel.read(modelFilename);
+        quantizedModel.quantize(bits);
+        quantizedModel.write(quantizedModelFilename);
+        compareModels(modelFilename, quantizedModelFilename, "quantized");
+    }
+
+    /**
+     * Removes the features of small weights from the trained model (see HighOrderFastCRF.prune()), saves it to
+     * learntModels/crfmodel.pruned, and compares it with the original model (see compareModels()).
+     * @param minAbsWeight the features whose absolute weights are smaller than this are removed
+     * @param maxFeaturesPerOrder the maximum numbers of the features kept for each order, 0 for no limit
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void prune(double minAbsWeight, int... maxFeaturesPerOrder) throws IOException, InterruptedException {
+        String modelFilename = "learntModels/crfmodel";
+        String prunedModelFilename = modelFilename + ".pruned";
+        HighOrderFastCRF<UnicodeCharacter> prunedModel = new HighOrderFastCRF<UnicodeCharacter>(false);
+        prunedModel.read(modelFilename);
+        prunedModel.prune(minAbsWeight, maxFeaturesPerOrder);
+        prunedModel.write(prunedModelFilename);
+        compareModels(modelFilename, prunedModelFilename, "pruned");
+    }
+
+    /**
+     * Reads the original model and the model transformed from it, prints the sizes of their files,
+     * and compares the labels of the test data predicted with the transformed model
+     * against the true labels and those predicted with the original model.
+     * @param modelFilename the file of the original model
+     * @param transformedModelFilename the file of the transformed model
+     * @param transformation the name of the transformation in the messages, e.g. "quantized"
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    void compareModels(String modelFilename, String transformedModelFilename, String transformation)
+            throws IOException, InterruptedException {
+        HighOrderFastCRF<UnicodeCharacter> originalModel = new HighOrderFastCRF<UnicodeCharacter>(false);
+        originalModel.read(modelFilename);
+        HighOrderFastCRF<UnicodeCharacter> transformedModel = new HighOrderFastCRF<UnicodeCharacter>(false);
+        transformedModel.read(transformedModelFilename);
+        System.out.println("Model size: " + new File(modelFilename).length() + " bytes, " + transformation + ": "
+                + new File(transformedModelFilename).length() + " bytes (" + transformedModelFilename + ")");
+        
+        String testFilename = "dev.full";
+        List<ObservationSequence<UnicodeCharacter>> testDataSequenceList = readData(testFilename, false);
+        String[][] trueLabels = originalModel.extractLabels(testDataSequenceList);
+        long startTime = System.currentTimeMillis();
+        String[][] originalLabels = originalModel.decode(testDataSequenceList, featureGenerator, 4);
+        System.out.println("Original: decoded in " + (System.currentTimeMillis() - startTime) + " ms");
+        new Scorer(trueLabels, originalLabels, false).tokenScore();
+        startTime = System.currentTimeMillis();
+        String[][] transformedLabels = transformedModel.decode(testDataSequenceList, featureGenerator, 4);
+        System.out.println(Character.toUpperCase(transformation.charAt(0)) + transformation.substring(1)
+                + ": decoded in " + (System.currentTimeMillis() - startTime) + " ms");
+        new Scorer(trueLabels, transformedLabels, false).tokenScore();
+        System.out.println("Agreement of the " + transformation + " model with the original model:");
+        new Scorer(originalLabels, transformedLabels, false).tokenScore();
+    }
+    
+    /**
+     * Segments a file of one unsegmented sentence per line and writes the sentences with the words separated by spaces,
+     * reading and writing the sentences one by one (see TaggingPipeline).
+     * @param inputFilename
+     * @param outputFilename
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void segment(String inputFilename, String outputFilename) throws IOException, InterruptedException {
+        HighOrderFastCRF<UnicodeCharacter> highOrderCRFModel = new HighOrderFastCRF<UnicodeCharacter>(false);
+        highOrderCRFModel.read("learntModels/crfmodel");
+        
+        SequenceFormat<UnicodeCharacter> format = createFormat();
+        SequenceReader<UnicodeCharacter> reader = format.createReader(new BufferedReader(new FileReader(inputFilename)));
+        SequenceWriter<UnicodeCharacter> writer = format.createWriter(new BufferedWriter(new FileWriter(outputFilename)));
+        long startTime = System.currentTimeMillis();
+        try {
+            long numSequences = highOrderCRFModel.decode(reader, writer, featureGenerator, 4);
+            System.out.println("Segmented " + numSequences + " sentences in " + (System.currentTimeMillis() - startTime) + " ms");
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
+    /**
+     * Serves the segmentation requests on the local port (see TaggingService).
+     * A request has one unsegmented sentence per line, and the response has the sentences with the words separated by spaces.
+     * @param port
+     * @return the running service
+     * @throws IOException
+     */
+    public TaggingService<UnicodeCharacter> serve(int port) throws IOException {
+        HighOrderFastCRF<UnicodeCharacter> highOrderCRFModel = new HighOrderFastCRF<UnicodeCharacter>(false);
+        highOrderCRFModel.read("learntModels/crfmodel");
+        
+        TaggingService<UnicodeCharacter> service = new TaggingService<UnicodeCharacter>(highOrderCRFModel.getTagger(featureGenerator),
+                createFormat(), "/segment", port, 4, 64, 5);
+        System.out.println("Serving on http://localhost:" + service.getPort() + "/segment");
+        return service;
+    }
+
     public static void main(String argv[]) throws Exception {
         Segmenter segmenter = new Segmenter();
         if (argv[0].toLowerCase().equals("all")) {
@@ -132,6 +307,18 @@ public class Segmenter {
             segmenter.train();
         } else if (argv[0].toLowerCase().equals("test")) {
             segmenter.test();
+        } else if (argv[0].toLowerCase().equals("quantize")) {
+            segmenter.quantize((argv.length > 1) ? Integer.parseInt(argv[1]) : 8);
+        } else if (argv[0].toLowerCase().equals("prune")) {
+            int[] maxFeaturesPerOrder = new int[Math.max(argv.length - 2, 0)];
+            for (int i = 0; i < maxFeaturesPerOrder.length; ++i) {
+                maxFeaturesPerOrder[i] = Integer.parseInt(argv[i + 2]);
+            }
+            segmenter.prune((argv.length > 1) ? Double.parseDouble(argv[1]) : 0.01, maxFeaturesPerOrder);
+        } else if (argv[0].toLowerCase().equals("segment")) {
+            segmenter.segment(argv[1], argv[2]);
+        } else if (argv[0].toLowerCase().equals("serve")) {
+            segmenter.serve((argv.length > 1) ? Integer.parseInt(argv[1]) : 8080);
         }
     }
 }